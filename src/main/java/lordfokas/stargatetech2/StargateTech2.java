@@ -8,6 +8,7 @@ import lordfokas.stargatetech2.modules.ModuleCore;
 import lordfokas.stargatetech2.reference.ModReference;
 import lordfokas.stargatetech2.util.ChunkLoader;
 import lordfokas.stargatetech2.util.Config;
+import lordfokas.stargatetech2.util.SaveExecutor;
 import lordfokas.stargatetech2.util.Stacks;
 import lordfokas.stargatetech2.util.StargateLogger;
 import lordfokas.stargatetech2.util.StargateTab;
@@ -124,6 +125,7 @@ public class StargateTech2 {
 		for(IContentModule module : modules){
 			module.onServerStop();
 		}
+		SaveExecutor.instance().awaitIdle();
 	}
 	
 	public static Item register(Item item) {
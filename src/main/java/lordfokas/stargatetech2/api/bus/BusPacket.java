@@ -7,6 +7,8 @@ public abstract class BusPacket<R>{
 	private final short sender;
 	private final short target;
 	private final boolean hasLIP;
+	private BusPacketLIP plainText;
+	private int protocolID = -1;
 	
 	/**
 	 * @param sender The address of the Device that is sending this packet.
@@ -38,20 +40,27 @@ public abstract class BusPacket<R>{
 	 * @return The ID of the protocol this packet corresponds to.
 	 */
 	public final int getProtocolID(){
-		return BusProtocols.getProtocolID(this.getClass());
+		if(protocolID < 0){
+			protocolID = BusProtocols.getProtocolID(this.getClass());
+		}
+		return protocolID;
 	}
 	
 	/**
 	 * @return A plain text (LIP) version of this packet, if it has one.
+	 * It is only built the first time it's asked for, and then shared by every receiver.
 	 */
 	public final BusPacketLIP getPlainText(){
 		if(this instanceof BusPacketLIP){
 			return (BusPacketLIP) this;
 		}else if(hasLIP){
-			BusPacketLIP lip = new BusPacketLIP(sender, target);
-			fillPlainText(lip);
-			lip.finish();
-			return lip;
+			if(plainText == null){
+				BusPacketLIP lip = new BusPacketLIP(sender, target);
+				fillPlainText(lip);
+				lip.finish();
+				plainText = lip;
+			}
+			return plainText;
 		}
 		return null;
 	}
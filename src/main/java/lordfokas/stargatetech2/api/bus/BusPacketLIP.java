@@ -2,6 +2,7 @@ package lordfokas.stargatetech2.api.bus;
 
 import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.Map.Entry;
 
 /**
  * LIP - Lazy Intercom Protocol<br>
@@ -19,6 +20,7 @@ public final class BusPacketLIP extends BusPacket<String> {
 	private boolean isEditable = true;
 	private LIPMetadata metadata = null;
 	private Hashtable<String, String> data = new Hashtable();
+	private int size = -1;
 	
 	/**
 	 * Defines optional metadata that helps sorting this packet out / figuring out what to do with this.
@@ -109,4 +111,18 @@ public final class BusPacketLIP extends BusPacket<String> {
 	public String get(String key){
 		return data.get(key.toLowerCase());
 	}
+	
+	/**
+	 * @return The length of all the keys and values in this packet, added together.
+	 * Only counted once, after the packet is finished.
+	 */
+	public int getSize(){
+		if(size >= 0) return size;
+		int total = 0;
+		for(Entry<String, String> entry : data.entrySet()){
+			total += entry.getKey().length() + entry.getValue().length();
+		}
+		if(!isEditable) size = total;
+		return total;
+	}
 }
\ No newline at end of file
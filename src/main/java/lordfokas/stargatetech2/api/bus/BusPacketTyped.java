@@ -0,0 +1,206 @@
+package lordfokas.stargatetech2.api.bus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A packet for machine to machine traffic.<br>
+ * <br>
+ * Instead of a table of strings like LIP, fields are identified by small numbers
+ * given out once by field(), and values are kept as primitives, so sending and
+ * reading these packets needs no string formatting, parsing or hashing.
+ * The LIP version of this packet is only built if some device asks for it.<br>
+ * <br>
+ * Example:
+ * <pre>
+ * static final int TIMEOUT = BusPacketTyped.field("timeout");
+ * packet.setInt(TIMEOUT, 38);
+ * int timeout = packet.getInt(TIMEOUT, 38);
+ * </pre>
+ */
+public final class BusPacketTyped extends BusPacket<String> {
+	private static final HashMap<String, Integer> fieldIDs = new HashMap();
+	private static final ArrayList<String> fieldNames = new ArrayList();
+	
+	private static final byte TYPE_INT		= 0;
+	private static final byte TYPE_LONG		= 1;
+	private static final byte TYPE_BOOLEAN	= 2;
+	private static final byte TYPE_SHORT	= 3;
+	private static final byte TYPE_STRING	= 4;
+	
+	private int size = 0;
+	private int[] fields = new int[4];
+	private byte[] types = new byte[4];
+	private long[] values = new long[4];
+	private String[] strings = null;
+	private boolean isEditable = true;
+	
+	public BusPacketTyped(short sender, short target) {
+		super(sender, target, true);
+	}
+	
+	/**
+	 * Gives you the ID of a field, which is the same for the whole game session.
+	 * Keep it in a static field instead of calling this for every packet.
+	 *
+	 * @param name The name of the field, as it shows in the LIP version of the packet. Case insensitive.
+	 * @return The ID of the field.
+	 */
+	public static synchronized int field(String name){
+		name = name.toLowerCase();
+		Integer id = fieldIDs.get(name);
+		if(id == null){
+			id = Integer.valueOf(fieldNames.size());
+			fieldIDs.put(name, id);
+			fieldNames.add(name);
+		}
+		return id.intValue();
+	}
+	
+	/**
+	 * @return The name of the field with this ID.
+	 */
+	public static synchronized String getFieldName(int field){
+		return fieldNames.get(field);
+	}
+	
+	/**
+	 * Makes a typed packet out of a LIP packet. Values are kept as text
+	 * and only parsed when they're read as numbers or booleans.
+	 *
+	 * @param lip The packet to convert.
+	 * @return A typed packet with the same sender, target and data.
+	 */
+	public static BusPacketTyped fromPlainText(BusPacketLIP lip){
+		BusPacketTyped packet = new BusPacketTyped(lip.getSender(), lip.getTarget());
+		for(String key : lip.getEntryList()){
+			packet.setString(field(key), lip.get(key));
+		}
+		packet.finish();
+		return packet;
+	}
+	
+	/**
+	 * Finish creating this packet.
+	 * As soon as you call this, it can no longer be modified.
+	 */
+	public void finish(){
+		isEditable = false;
+	}
+	
+	public void setInt(int field, int value){
+		set(field, TYPE_INT, value);
+	}
+	
+	public void setLong(int field, long value){
+		set(field, TYPE_LONG, value);
+	}
+	
+	public void setBoolean(int field, boolean value){
+		set(field, TYPE_BOOLEAN, value ? 1 : 0);
+	}
+	
+	public void setShort(int field, short value){
+		set(field, TYPE_SHORT, value);
+	}
+	
+	public void setString(int field, String value){
+		if(value == null) return;
+		int slot = set(field, TYPE_STRING, 0);
+		if(slot < 0) return;
+		if(strings == null){
+			strings = new String[fields.length];
+		}else if(strings.length < fields.length){
+			String[] grown = new String[fields.length];
+			System.arraycopy(strings, 0, grown, 0, strings.length);
+			strings = grown;
+		}
+		strings[slot] = value;
+	}
+	
+	/**
+	 * @return The slot the value was written to, or -1 if it wasn't.
+	 */
+	private int set(int field, byte type, long value){
+		if(!isEditable || indexOf(field) >= 0) return -1;
+		if(size == fields.length){
+			int[] f = new int[size * 2];
+			byte[] t = new byte[size * 2];
+			long[] v = new long[size * 2];
+			System.arraycopy(fields, 0, f, 0, size);
+			System.arraycopy(types, 0, t, 0, size);
+			System.arraycopy(values, 0, v, 0, size);
+			fields = f;
+			types = t;
+			values = v;
+		}
+		fields[size] = field;
+		types[size] = type;
+		values[size] = value;
+		return size++;
+	}
+	
+	private int indexOf(int field){
+		for(int i = 0; i < size; i++){
+			if(fields[i] == field) return i;
+		}
+		return -1;
+	}
+	
+	public boolean has(int field){
+		return indexOf(field) >= 0;
+	}
+	
+	public int getInt(int field, int def){
+		return (int) getLong(field, def);
+	}
+	
+	public short getShort(int field, short def){
+		return (short) getLong(field, def);
+	}
+	
+	public long getLong(int field, long def){
+		int slot = indexOf(field);
+		if(slot < 0) return def;
+		if(types[slot] == TYPE_STRING){
+			try{
+				return Long.parseLong(strings[slot].trim());
+			}catch(NumberFormatException e){
+				return def;
+			}
+		}
+		return values[slot];
+	}
+	
+	public boolean getBoolean(int field, boolean def){
+		int slot = indexOf(field);
+		if(slot < 0) return def;
+		if(types[slot] == TYPE_STRING){
+			return Boolean.parseBoolean(strings[slot].trim());
+		}
+		return values[slot] != 0;
+	}
+	
+	/**
+	 * @return The value of this field as text, whatever its type, or null if it isn't set.
+	 */
+	public String getString(int field){
+		int slot = indexOf(field);
+		return slot < 0 ? null : toString(slot);
+	}
+	
+	private String toString(int slot){
+		switch(types[slot]){
+			case TYPE_STRING: return strings[slot];
+			case TYPE_BOOLEAN: return String.valueOf(values[slot] != 0);
+			default: return String.valueOf(values[slot]);
+		}
+	}
+	
+	@Override
+	protected void fillPlainText(BusPacketLIP lip){
+		for(int i = 0; i < size; i++){
+			lip.set(getFieldName(fields[i]), toString(i));
+		}
+	}
+}
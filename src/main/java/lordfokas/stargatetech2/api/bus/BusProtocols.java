@@ -1,9 +1,11 @@
 package lordfokas.stargatetech2.api.bus;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 public final class BusProtocols {	
 	private static final ArrayList<Class<? extends BusPacket>> protocols = new ArrayList();
+	private static final HashMap<Class<? extends BusPacket>, Integer> protocolIDs = new HashMap();
 	
 	/**
 	 * Add a protocol to the list, if it doesn't exist yet.
@@ -12,20 +14,24 @@ public final class BusProtocols {
 	 * @return the id of the protocol we just added.
 	 */
 	public static final int addProtocol(Class<? extends BusPacket> packetClass){
-		if(!protocols.contains(packetClass)){
+		Integer id = protocolIDs.get(packetClass);
+		if(id == null){
+			id = Integer.valueOf(protocols.size());
 			protocols.add(packetClass);
+			protocolIDs.put(packetClass, id);
 		}
-		return protocols.indexOf(packetClass);
+		return id.intValue();
 	}
 	
 	/**
 	 * Gives you the id of the protocol correspondig to a given packet class.
 	 * 
 	 * @param packetClass the class of the packet for which we want to know the protocol ID.
-	 * @return the ID of the protocol corresponding to the packet class.
+	 * @return the ID of the protocol corresponding to the packet class, or -1 if it wasn't added.
 	 */
 	public static final int getProtocolID(Class<? extends BusPacket> packetClass){
-		return protocols.indexOf(packetClass);
+		Integer id = protocolIDs.get(packetClass);
+		return id == null ? -1 : id.intValue();
 	}
 	
 	private BusProtocols(){}
@@ -35,4 +41,5 @@ public final class BusProtocols {
 	// A list of all the protocols implemented by StargateTech 2
 	public static final int PROTOCOL_LIP = addProtocol(BusPacketLIP.class);
 	public static final int PROTOCOL_NETSCAN = addProtocol(BusPacketNetScan.class);
+	public static final int PROTOCOL_TYPED = addProtocol(BusPacketTyped.class);
 }
@@ -0,0 +1,15 @@
+package lordfokas.stargatetech2.api.bus;
+
+/**
+ * Optionally implemented by IBusDrivers that send packets with
+ * IBusInterface.queueAllPackets(), to be told when each packet
+ * was delivered and read the responses other devices added to it.
+ */
+public interface IBusCallback {
+	/**
+	 * Called once a queued packet went through the whole network.
+	 * 
+	 * @param packet The packet that was delivered. Its responses can now be read.
+	 */
+	public void onPacketDelivered(BusPacket packet);
+}
@@ -14,9 +14,40 @@ public interface IBusInterface {
 	 * getNextPacketToSend() method repeatedly until it returns
 	 * null. Every packet returned by that method will be sent
 	 * across the network.
+	 * 
+	 * If this is called while another packet is being delivered,
+	 * the packets are queued instead, as with queueAllPackets().
 	 */
 	public void sendAllPackets();
 	
+	/**
+	 * Like sendAllPackets(), but the packets are only delivered at
+	 * the end of the server tick, along with other queued packets and
+	 * as long as the network's per tick budget allows it.
+	 * Identical LIP broadcasts from this interface that are still
+	 * waiting in the queue are delivered only once.
+	 * 
+	 * Drivers that need the responses to these packets should
+	 * implement IBusCallback.
+	 */
+	public void queueAllPackets();
+	
+	/**
+	 * Registers a handler for the packets of one protocol addressed to
+	 * this interface. They're given straight to the handler, without
+	 * asking the IBusDriver's canHandlePacket() first. Packets of other
+	 * protocols are still given to the IBusDriver.
+	 * 
+	 * @param protocolID The ID of the protocol, as given by BusProtocols.
+	 * @param handler The handler, or null to give these packets to the IBusDriver again.
+	 */
+	public void registerHandler(int protocolID, IBusPacketHandler handler);
+	
+	/**
+	 * @return The load counters of this interface. They keep counting, so read them again to get new values.
+	 */
+	public IBusMetrics getMetrics();
+	
 	/**
 	 * Serialize this object.
 	 * 
@@ -0,0 +1,36 @@
+package lordfokas.stargatetech2.api.bus;
+
+/**
+ * Load counters of a bus interface or network, counted since it was
+ * created or since the counters were last reset.
+ *
+ * For an interface, sent packets are the ones it sent, received packets
+ * the ones its driver or handlers took, and dropped packets the ones it
+ * couldn't send or didn't take while they were addressed to it.
+ * For a network, they're the sum of the same over the whole network.
+ */
+public interface IBusMetrics {
+	/**
+	 * How many buckets the delivery time histogram has.
+	 */
+	public static final int TIME_BUCKETS = 16;
+	
+	public long getPacketsSent();
+	
+	public long getPacketsReceived();
+	
+	public long getPacketsDropped();
+	
+	/**
+	 * @return The size of the keys and values of every LIP packet sent, at a byte per character.
+	 */
+	public long getLIPBytes();
+	
+	/**
+	 * Bucket <i>i</i> counts the packets that took less than 2<sup>i</sup> microseconds
+	 * to go through the network. The last bucket also counts all the slower ones.
+	 *
+	 * @return A copy of the delivery time histogram, with TIME_BUCKETS buckets.
+	 */
+	public long[] getDeliveryTimes();
+}
@@ -0,0 +1,15 @@
+package lordfokas.stargatetech2.api.bus;
+
+/**
+ * Handles the packets of a single protocol on behalf of an IBusDriver.
+ * Register it with IBusInterface.registerHandler().
+ */
+public interface IBusPacketHandler {
+	/**
+	 * Called by the network for every packet of this handler's
+	 * protocol that is addressed to its interface.
+	 * 
+	 * @param packet The packet to be handled.
+	 */
+	public void handlePacket(BusPacket packet);
+}
@@ -1,8 +1,9 @@
 package lordfokas.stargatetech2.api.stargate;
 
-public class Address {
+public final class Address {
 	public static final Address ERROR = new Address(new Symbol[]{Symbol.MIG, Symbol.MIG, Symbol.MIG, Symbol.MIG, Symbol.MIG});
-	private Symbol[] symbols;
+	private final Symbol[] symbols;
+	private final long packed;
 	
 	public static Address create(Symbol[] symbols){
 		try{
@@ -21,7 +22,7 @@ public class Address {
 				}
 				used[symbol.ordinal()] = true;
 			}
-			return new Address(symbols);
+			return new Address(symbols.clone());
 		}catch(Exception e){
 			return ERROR;
 		}
@@ -29,6 +30,27 @@ public class Address {
 	
 	private Address(Symbol[] symbols){
 		this.symbols = symbols;
+		this.packed = pack(symbols);
+	}
+	
+	/**
+	 * Packs the symbol ordinals (6 bits each, up to 9 of them) into the low 54 bits
+	 * and the address length into the bits above them, so that two addresses are
+	 * equal if and only if their packed values are.
+	 */
+	private static long pack(Symbol[] symbols){
+		long value = symbols.length;
+		for(Symbol symbol : symbols){
+			value = (value << 6) | symbol.ordinal();
+		}
+		return value;
+	}
+	
+	/**
+	 * @return This address in a compact form, unique for every address.
+	 */
+	public long getPackedValue(){
+		return packed;
 	}
 	
 	public int length(){
@@ -63,21 +85,14 @@ public class Address {
 	@Override
 	public boolean equals(Object o){
 		if(o instanceof Address){
-			Address a = (Address) o;
-			if(a.length() == length()){
-				for(int i = 0; i < length(); i++){
-					if(symbols[i] != a.symbols[i]){
-						return false;
-					}
-				}
-				return true;
-			}
+			return ((Address) o).packed == packed;
 		}
 		return false;
 	}
 	
 	@Override
 	public int hashCode(){
-		return length();
+		long h = packed * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
 	}
 }
\ No newline at end of file
@@ -17,6 +17,7 @@ public enum DialError{
 	
 	// Logic
 	DIALING_EVENT_CANCELED,
+	DIALING_IN_PROGRESS,
 	SUCCESSFULLY_DIALED,
 	UNKNOWN_LOGIC_ERROR;
 }
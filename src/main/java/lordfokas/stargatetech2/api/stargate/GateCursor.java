@@ -0,0 +1,18 @@
+package lordfokas.stargatetech2.api.stargate;
+
+/**
+ * Marks where a listing of Stargates stopped, so the next page can pick up right after it.
+ * Stargates are always listed in the same order, so a cursor stays valid while the network changes:
+ * Stargates added or removed behind it are simply not seen again.
+ * <br>
+ * Cursors are only meant to be obtained from {@link GatePage#next}.
+ */
+public final class GateCursor {
+	public final int dimension;
+	public final long address;
+	
+	public GateCursor(int dimension, long address){
+		this.dimension = dimension;
+		this.address = address;
+	}
+}
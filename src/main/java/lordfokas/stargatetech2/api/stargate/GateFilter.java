@@ -0,0 +1,105 @@
+package lordfokas.stargatetech2.api.stargate;
+
+/**
+ * Describes which Stargates {@link IStargateNetwork#listGates(GateFilter, GateCursor, int)} should list.
+ * Every criteria is optional, and a new filter matches every Stargate.
+ * <br>
+ * Example: new GateFilter().inDimension(0).busy(false);
+ */
+public final class GateFilter {
+	private Integer dimension = null;
+	private int[] box = null;
+	private Symbol[] prefix = null;
+	private Boolean busy = null;
+	
+	/**
+	 * Only list Stargates in this dimension.
+	 */
+	public GateFilter inDimension(int dimension){
+		this.dimension = Integer.valueOf(dimension);
+		return this;
+	}
+	
+	/**
+	 * Only list Stargates inside this box. All bounds are inclusive.
+	 */
+	public GateFilter within(int minX, int minY, int minZ, int maxX, int maxY, int maxZ){
+		this.box = new int[]{
+			Math.min(minX, maxX), Math.min(minY, maxY), Math.min(minZ, maxZ),
+			Math.max(minX, maxX), Math.max(minY, maxY), Math.max(minZ, maxZ)
+		};
+		return this;
+	}
+	
+	/**
+	 * Only list Stargates whose address starts with this dimension prefix.
+	 * 
+	 * @param prefix An array of exactly 3 non-null and non-void symbols.
+	 */
+	public GateFilter withPrefix(Symbol[] prefix){
+		if(prefix == null || prefix.length != 3) throw new IllegalArgumentException("The prefix must contain exactly 3 Symbols!");
+		for(Symbol s : prefix){
+			if(s == null || s == Symbol.VOID) throw new IllegalArgumentException("The symbols must not be null or Symbol.VOID!");
+		}
+		this.prefix = prefix.clone();
+		return this;
+	}
+	
+	/**
+	 * Only list Stargates that do (true) or don't (false) have an open wormhole.
+	 */
+	public GateFilter busy(boolean busy){
+		this.busy = Boolean.valueOf(busy);
+		return this;
+	}
+	
+	public boolean hasDimension(){
+		return dimension != null;
+	}
+	
+	public int getDimension(){
+		return dimension.intValue();
+	}
+	
+	public boolean hasBox(){
+		return box != null;
+	}
+	
+	/**
+	 * @return {minX, minY, minZ, maxX, maxY, maxZ}
+	 */
+	public int[] getBox(){
+		return box.clone();
+	}
+	
+	public boolean hasPrefix(){
+		return prefix != null;
+	}
+	
+	public Symbol[] getPrefix(){
+		return prefix.clone();
+	}
+	
+	public boolean hasBusy(){
+		return busy != null;
+	}
+	
+	public boolean getBusy(){
+		return busy.booleanValue();
+	}
+	
+	/**
+	 * @return Whether a Stargate with this address, location and state passes this filter.
+	 */
+	public boolean matches(Address address, int d, int x, int y, int z, boolean isBusy){
+		if(dimension != null && dimension.intValue() != d) return false;
+		if(box != null && (x < box[0] || y < box[1] || z < box[2] || x > box[3] || y > box[4] || z > box[5])) return false;
+		if(prefix != null){
+			for(int i = 0; i < 3; i++){
+				if(address.getSymbol(i) != prefix[i]) return false;
+			}
+		}
+		if(busy != null && busy.booleanValue() != isBusy) return false;
+		return true;
+	}
+}
@@ -0,0 +1,22 @@
+package lordfokas.stargatetech2.api.stargate;
+
+/**
+ * A Stargate as listed by {@link IStargateNetwork#listGates(GateFilter, GateCursor, int)}.
+ */
+public final class GateInfo {
+	public final Address address;
+	public final int dimension;
+	public final int xCoord;
+	public final int yCoord;
+	public final int zCoord;
+	public final boolean isBusy;
+	
+	public GateInfo(Address address, int dimension, int x, int y, int z, boolean isBusy){
+		this.address = address;
+		this.dimension = dimension;
+		this.xCoord = x;
+		this.yCoord = y;
+		this.zCoord = z;
+		this.isBusy = isBusy;
+	}
+}
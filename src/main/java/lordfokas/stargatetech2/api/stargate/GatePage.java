@@ -0,0 +1,18 @@
+package lordfokas.stargatetech2.api.stargate;
+
+import java.util.List;
+
+/**
+ * One page of a Stargate listing.
+ */
+public final class GatePage {
+	public final List<GateInfo> gates;
+	
+	/** The cursor for the next page, or null if this is the last one. */
+	public final GateCursor next;
+	
+	public GatePage(List<GateInfo> gates, GateCursor next){
+		this.gates = gates;
+		this.next = next;
+	}
+}
@@ -45,6 +45,18 @@ public interface IStargateNetwork {
 	 */
 	public Address findNearestStargate(World world, int x, int y, int z, int radius);
 	
+	/**
+	 * Lists the Stargates matching a filter, one page at a time.
+	 * Stargates are listed by dimension, and then by address, and the listing is served
+	 * from the network's latest published state, so it is safe to call from any thread.
+	 * 
+	 * @param filter Which Stargates to list. Use new GateFilter() to list all of them.
+	 * @param cursor null for the first page, or the {@link GatePage#next} cursor of the previous page.
+	 * @param pageSize How many Stargates to return at most. (1 - 1000)
+	 * @return A page of Stargates, which is empty if there are no (more) matches.
+	 */
+	public GatePage listGates(GateFilter filter, GateCursor cursor, int pageSize);
+	
 	/**
 	 * Register a new IDynamicWorldLoader.
 	 * 
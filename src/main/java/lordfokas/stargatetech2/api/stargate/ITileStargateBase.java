@@ -24,7 +24,8 @@ public interface ITileStargateBase extends ITileStargate{
 	 * 
 	 * @param address The address this Stargate should dial.
 	 * @param timeout How many seconds the connection will last. (1 - 38; default: 38);
-	 * @return whether the dialing sequence started (true) or failed (false).
+	 * @return DIALING_IN_PROGRESS if the dialing sequence started, or the reason it failed.
+	 * The outcome of a started sequence is posted later as a {@link DialEvent}.
 	 */
 	public DialError dial(Address address, int timeout, DialMethod method);
 }
\ No newline at end of file
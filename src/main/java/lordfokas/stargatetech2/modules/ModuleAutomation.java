@@ -3,11 +3,14 @@ package lordfokas.stargatetech2.modules;
 import lordfokas.stargatetech2.StargateTech2;
 import lordfokas.stargatetech2.modules.automation.AutomationEventHandler;
 import lordfokas.stargatetech2.modules.automation.BlockBusCable;
+import lordfokas.stargatetech2.modules.automation.CommandBusStats;
 import lordfokas.stargatetech2.util.Stacks;
+import net.minecraft.command.ServerCommandManager;
 import net.minecraft.init.Blocks;
 import net.minecraft.item.ItemBlock;
 import net.minecraft.item.ItemStack;
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.registry.GameRegistry;
 import net.minecraftforge.oredict.OreDictionary;
 
@@ -32,7 +35,9 @@ public class ModuleAutomation implements IContentModule {
 		StargateTech2.proxy.registerRenderers(Module.AUTOMATION);
 	}
 
-	@Override public void onServerStart(){}
+	@Override public void onServerStart(){
+		((ServerCommandManager) FMLCommonHandler.instance().getMinecraftServerInstance().getCommandManager()).registerCommand(new CommandBusStats());
+	}
 	@Override public void onServerStop(){}
 
 	@Override
@@ -51,9 +51,7 @@ public final class ModuleCore implements IContentModule{
 	}
 
 	@Override
-	public void onServerStart(){
-		ChunkLoader.load();
-	}
+	public void onServerStart(){}
 	
 	@Override
 	public void onServerStop(){
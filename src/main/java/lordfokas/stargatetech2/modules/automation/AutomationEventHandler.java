@@ -1,8 +1,10 @@
 package lordfokas.stargatetech2.modules.automation;
 
 import lordfokas.stargatetech2.api.bus.BusEvent;
-import net.minecraft.util.EnumFacing;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
 
 public class AutomationEventHandler {
 	
@@ -10,12 +12,40 @@ public class AutomationEventHandler {
 	public void remapAbstractBus(BusEvent evt){
 		if(!evt.world.isRemote){
 			if(evt instanceof BusEvent.RemoveFromNetwork){
-				for(EnumFacing dir : EnumFacing.values()){
-					RecursiveBusRemapper.scan(evt.world, evt.pos.offset(dir));
-				}
+				BusNetworkRegistry.get(evt.world).remove(evt.pos);
 			}else if(evt instanceof BusEvent.AddToNetwork){
-				RecursiveBusRemapper.scan(evt.world, evt.pos);
+				BusNetworkRegistry.get(evt.world).add(evt.pos);
 			}
 		}
 	}
-}
+	
+	@SubscribeEvent
+	public void onWorldUnload(WorldEvent.Unload evt){
+		if(!evt.getWorld().isRemote){
+			BusNetworkRegistry.unload(evt.getWorld());
+			BusNetwork.discardQueued(evt.getWorld());
+		}
+	}
+	
+	@SubscribeEvent
+	public void onServerTick(TickEvent.ServerTickEvent evt){
+		if(evt.phase == TickEvent.Phase.END){
+			BusNetwork.deliverQueued();
+		}
+	}
+	
+	// Bus networks hold on to the interfaces they resolved, which belong to tile entities in loaded chunks.
+	@SubscribeEvent
+	public void onChunkLoad(ChunkEvent.Load evt){
+		if(!evt.getWorld().isRemote){
+			BusNetworkRegistry.get(evt.getWorld()).invalidateChunk(evt.getChunk().xPosition, evt.getChunk().zPosition);
+		}
+	}
+	
+	@SubscribeEvent
+	public void onChunkUnload(ChunkEvent.Unload evt){
+		if(!evt.getWorld().isRemote){
+			BusNetworkRegistry.get(evt.getWorld()).invalidateChunk(evt.getChunk().xPosition, evt.getChunk().zPosition);
+		}
+	}
+}
\ No newline at end of file
@@ -1,51 +1,59 @@
 package lordfokas.stargatetech2.modules.automation;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Set;
 
 import lordfokas.stargatetech2.api.bus.BusPacket;
-import lordfokas.stargatetech2.api.bus.BusPacketNetScan;
 import lordfokas.stargatetech2.api.bus.BusPacketNetScan.Device;
-import lordfokas.stargatetech2.api.bus.BusProtocols;
+import lordfokas.stargatetech2.api.bus.IBusCallback;
 import lordfokas.stargatetech2.api.bus.IBusDevice;
 import lordfokas.stargatetech2.api.bus.IBusDriver;
 import lordfokas.stargatetech2.api.bus.IBusInterface;
+import lordfokas.stargatetech2.api.bus.IBusPacketHandler;
 import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.EnumFacing;
-import net.minecraft.world.World;
+import net.minecraft.util.math.BlockPos;
 
 public final class BusInterface implements IBusInterface{
 	private static final byte BROADCAST		= (byte) 0xFF;
 	private static final byte PROMISCUOUS	= (byte) 0x00;
 	
-	private final Set<RemoteDevice>[] addressingTable;
-	private Set<RemoteDevice> addressCache;
+	private static int delivering = 0;
+	
+	private final BusNetwork[] networks;
+	private boolean mapped = false;
+	private IBusPacketHandler[] handlers = null;
+	private final BusMetrics metrics = new BusMetrics();
+	private BusSniffer sniffer = null;
 	private final IBusDevice device;
 	private final IBusDriver driver;
 	
 	public BusInterface(IBusDevice device, IBusDriver driver){
 		this.device = device;
 		this.driver = driver;
-		addressingTable = new Set[6];
-		addressCache = new HashSet();
+		networks = new BusNetwork[6];
+	}
+	
+	public void setNetwork(EnumFacing side, BusNetwork network){
+		// Doesn't count as mapped: the registry only tells us about the sides that changed.
+		networks[side.ordinal()] = network;
 	}
 	
-	public void setAddressingTable(EnumFacing side, Set<RemoteDevice> table){
-		addressingTable[side.ordinal()] = table;
-		rebuildAddressCache();
+	static boolean isPromiscuous(short address){
+		return (byte)((address & 0xFF00) >> 8) == PROMISCUOUS || (byte)(address & 0x00FF) == PROMISCUOUS;
 	}
 	
-	private void rebuildAddressCache(){
-		addressCache = new HashSet();
-		for(Set<RemoteDevice> table : addressingTable)
-			if(table != null) addressCache.addAll(table);
+	static boolean isBroadcast(short address){
+		return (byte)((address & 0xFF00) >> 8) == BROADCAST || (byte)(address & 0x00FF) == BROADCAST;
 	}
 
 	@Override
 	public void sendAllPackets(){
-		if(driver.isInterfaceEnabled()){
+		if(delivering > 0){
+			queueAllPackets();
+		}else if(driver.isInterfaceEnabled()){
+			map();
 			BusPacket packet;
 			while((packet = driver.getNextPacketToSend()) != null){
 				sendPacket(packet);
@@ -53,92 +61,208 @@ public final class BusInterface implements IBusInterface{
 		}
 	}
 	
-	private void sendPacket(BusPacket packet){
-		ArrayList memory = new ArrayList();
-		World w = device.getWorld();
-		for(RemoteDevice device : addressCache){
-			TileEntity te = w.getTileEntity(device.pos);
-			if(te instanceof IBusDevice){
-				IBusInterface[] interfaces = ((IBusDevice)te).getInterfaces(device.side);
-				if(interfaces == null){
-					continue;
-				}
-				for(IBusInterface i : interfaces){
-					if(i instanceof BusInterface && !memory.contains(i)){
-						((BusInterface)i).recvPacket(packet);
-						memory.add(i);
-					}
+	@Override
+	public void queueAllPackets(){
+		if(driver.isInterfaceEnabled()){
+			map();
+			BusNetwork network = null;
+			for(int i = 0; i < networks.length && network == null; i++){
+				network = networks[i];
+			}
+			BusPacket packet;
+			while((packet = driver.getNextPacketToSend()) != null){
+				if(network != null){
+					network.enqueue(packet, this);
+				}else{
+					drop(packet);
 				}
 			}
 		}
 	}
 	
-	public void recvPacket(BusPacket packet){
-		boolean mapping = packet.getProtocolID() == BusProtocols.PROTOCOL_NETSCAN;
-		if(!mapping && !driver.isInterfaceEnabled()) return;
+	private void map(){
+		if(!mapped){
+			// Networks aren't saved, so they're found again the first time we need them.
+			mapped = true;
+			BusNetworkRegistry.get(device.getWorld()).add(new BlockPos(device.getXCoord(), device.getYCoord(), device.getZCoord()));
+		}
+	}
+	
+	/**
+	 * Sends a packet that was waiting in a network's queue.
+	 */
+	void deliver(BusPacket packet){
+		sendPacket(packet);
+		onDelivered(packet);
+	}
+	
+	void onDelivered(BusPacket packet){
+		if(driver instanceof IBusCallback){
+			((IBusCallback)driver).onPacketDelivered(packet);
+		}
+	}
+	
+	private void sendPacket(BusPacket packet){
+		long start = System.nanoTime();
+		boolean sent;
+		delivering++;
+		try{
+			sent = deliverToNetworks(packet);
+		}finally{
+			delivering--;
+		}
+		if(sent){
+			metrics.onSent(packet);
+			metrics.onDelivered(System.nanoTime() - start);
+			sniff(BusSniffer.SENT, packet);
+		}else{
+			drop(packet);
+		}
+	}
+	
+	/**
+	 * Counts a packet this interface had to send, but had nowhere to send it to.
+	 */
+	void drop(BusPacket packet){
+		metrics.onDropped();
+		sniff(BusSniffer.DROPPED, packet);
+	}
+	
+	private void sniff(byte kind, BusPacket packet){
+		if(sniffer != null){
+			sniffer.record(device.getWorld().getTotalWorldTime(), kind, packet);
+		}
+	}
+	
+	/**
+	 * @return false if this interface isn't connected to any network.
+	 */
+	private boolean deliverToNetworks(BusPacket packet){
+		BusNetwork first = null;
+		boolean bridging = false;
+		for(BusNetwork network : networks){
+			if(network == null || network == first) continue;
+			if(first == null){
+				first = network;
+			}else{
+				bridging = true;
+			}
+		}
+		if(first == null) return false;
+		if(!bridging){
+			first.deliver(packet, this, null);
+			return true;
+		}
+		// Connected to several networks: nobody gets the same packet twice.
+		Set<BusInterface> delivered = Collections.newSetFromMap(new IdentityHashMap());
+		for(int i = 0; i < networks.length; i++){
+			BusNetwork network = networks[i];
+			if(network == null) continue;
+			boolean seen = false;
+			for(int j = 0; j < i; j++){
+				if(networks[j] == network) seen = true;
+			}
+			if(!seen) network.deliver(packet, this, delivered);
+		}
+		return true;
+	}
+	
+	@Override
+	public void registerHandler(int protocolID, IBusPacketHandler handler){
+		if(protocolID < 0) return;
+		if(handlers == null || handlers.length <= protocolID){
+			IBusPacketHandler[] grown = new IBusPacketHandler[protocolID + 1];
+			if(handlers != null){
+				System.arraycopy(handlers, 0, grown, 0, handlers.length);
+			}
+			handlers = grown;
+		}
+		handlers[protocolID] = handler;
+	}
+	
+	/**
+	 * @param counters The metrics of the network the packet came from, which are counted along with ours.
+	 */
+	public void recvPacket(BusPacket packet, BusMetrics counters){
+		short sender = packet.getTarget();
+		if(!accepts(driver.getInterfaceAddress(), sender)) return;
+		boolean handled = false;
+		if(driver.isInterfaceEnabled()){
+			int protocol = packet.getProtocolID();
+			if(handlers != null && protocol >= 0 && protocol < handlers.length && handlers[protocol] != null){
+				handlers[protocol].handlePacket(packet);
+				handled = true;
+			}else if(driver.canHandlePacket(sender, protocol, packet.hasPlainText())){
+				driver.handlePacket(packet);
+				handled = true;
+			}
+		}
+		if(handled){
+			metrics.onReceived();
+			counters.onReceived();
+			sniff(BusSniffer.RECEIVED, packet);
+		}else{
+			metrics.onDropped();
+			counters.onDropped();
+			sniff(BusSniffer.DROPPED, packet);
+		}
+	}
+	
+	static boolean accepts(short address, short sender){
 		// split addresses into net and host address.
 		// uses /8 netmask in a 16-bit address.
-		short address = driver.getInterfaceAddress();
 		byte addrNet  = (byte)((address & 0xFF00) >> 8);
 		byte addrHost = (byte) (address & 0x00FF);
-		short sender  = packet.getTarget();
 		byte sendNet  = (byte)((sender & 0xFF00) >> 8);
 		byte sendHost = (byte) (sender & 0x00FF);
 		
 		// if addresses match      or it's a broadcast      or we're sniffing
-		if(sendNet  == addrNet  || sendNet  == BROADCAST || addrNet  == PROMISCUOUS)
-		if(sendHost == addrHost || sendHost == BROADCAST || addrHost == PROMISCUOUS){
-			if(mapping){
-				String dsc = driver.getDescription();
-				String snm = driver.getShortName();
-				short adrs = driver.getInterfaceAddress();
-				boolean on = driver.isInterfaceEnabled();
-				((BusPacketNetScan)packet).addDevice(new Device(dsc, snm, adrs, on, device.getXCoord(), device.getYCoord(), device.getZCoord()));
-			}else if(driver.canHandlePacket(sender, packet.getProtocolID(), packet.hasPlainText())){
-				driver.handlePacket(packet);
-			}
-		}
+		return (sendNet  == addrNet  || sendNet  == BROADCAST || addrNet  == PROMISCUOUS)
+			&& (sendHost == addrHost || sendHost == BROADCAST || addrHost == PROMISCUOUS);
 	}
-
+	
+	/**
+	 * @return This interface as it shows in network scans.
+	 */
+	Device describe(){
+		String dsc = driver.getDescription();
+		String snm = driver.getShortName();
+		short adrs = driver.getInterfaceAddress();
+		boolean on = driver.isInterfaceEnabled();
+		return new Device(dsc, snm, adrs, on, device.getXCoord(), device.getYCoord(), device.getZCoord());
+	}
+	
+	boolean isEnabled(){
+		return driver.isInterfaceEnabled();
+	}
+	
+	IBusDevice getDevice(){
+		return device;
+	}
+	
 	@Override
-	public void writeToNBT(NBTTagCompound nbt, String tag){
-		NBTTagCompound data = new NBTTagCompound();
-		for(int i = 0; i < addressingTable.length; i++){
-			NBTTagCompound table = new NBTTagCompound();
-			Set<RemoteDevice> tbl = addressingTable[i];
-			if(tbl == null){
-				table.setInteger("size", 0);
-			}else{
-				table.setInteger("size", tbl.size());
-				int j = 0;
-				for(RemoteDevice rdev : tbl){
-					table.setTag("addr"+j, rdev.serializeNBT());
-				}
-			}
-			data.setTag("table"+i, table);
-		}
-		nbt.setTag(tag, data);
+	public BusMetrics getMetrics(){
+		return metrics;
+	}
+	
+	/**
+	 * Starts recording the packets this interface sends and is given in this sniffer,
+	 * or stops recording if it's null. Packets are delivered the same either way.
+	 */
+	public void setSniffer(BusSniffer sniffer){
+		this.sniffer = sniffer;
+	}
+	
+	public BusSniffer getSniffer(){
+		return sniffer;
 	}
 
+	// Bus networks are rebuilt from the cables in the world, so there's nothing to save.
 	@Override
-	public void readFromNBT(NBTTagCompound nbt, String tag){
-		NBTTagCompound data = nbt.getCompoundTag(tag);
-		for(int i = 0; i < addressingTable.length; i++){
-			NBTTagCompound table = data.getCompoundTag("table"+i);
-			Set<RemoteDevice> tbl = null;
-			int sz = table.getInteger("size");
-			if(sz != 0){
-				tbl = new HashSet();
-				for(int j = 0; j < sz; j++){
-					RemoteDevice device = new RemoteDevice(null, null);
-					device.deserializeNBT(table.getCompoundTag("addr"+j));
-					tbl.add(device);
-				}
-			}
-			addressingTable[i] = tbl;
-		}
-		rebuildAddressCache();
-	}
+	public void writeToNBT(NBTTagCompound nbt, String tag){}
+
+	@Override
+	public void readFromNBT(NBTTagCompound nbt, String tag){}
 	
 	public short getAddress(){
 		return driver.getInterfaceAddress();
@@ -0,0 +1,90 @@
+package lordfokas.stargatetech2.modules.automation;
+
+import lordfokas.stargatetech2.api.bus.BusPacket;
+import lordfokas.stargatetech2.api.bus.BusPacketLIP;
+import lordfokas.stargatetech2.api.bus.IBusMetrics;
+
+/**
+ * The load counters of a bus interface or network. Only ever changed on the server thread,
+ * and cheap enough to be always on: a few additions per packet and a histogram bucket picked
+ * by the bit length of the delivery time.
+ */
+public final class BusMetrics implements IBusMetrics {
+	private long sent = 0;
+	private long received = 0;
+	private long dropped = 0;
+	private long lipBytes = 0;
+	private final long[] times = new long[TIME_BUCKETS];
+	
+	void onSent(BusPacket packet){
+		sent++;
+		if(packet instanceof BusPacketLIP){
+			lipBytes += ((BusPacketLIP)packet).getSize();
+		}
+	}
+	
+	void onReceived(){
+		received++;
+	}
+	
+	void onDropped(){
+		dropped++;
+	}
+	
+	void onDelivered(long nanos){
+		long micros = nanos / 1000;
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		times[Math.min(bucket, TIME_BUCKETS - 1)]++;
+	}
+	
+	public void reset(){
+		sent = received = dropped = lipBytes = 0;
+		for(int i = 0; i < times.length; i++){
+			times[i] = 0;
+		}
+	}
+	
+	/**
+	 * @return The delivery time under which this fraction of packets went through the network, in microseconds,
+	 * rounded up to a power of two, or -1 if it's slower than the histogram can tell.
+	 */
+	public long getDeliveryTimePercentile(double fraction){
+		long total = 0;
+		for(long count : times){
+			total += count;
+		}
+		if(total == 0) return 0;
+		long wanted = (long) Math.ceil(total * fraction);
+		long seen = 0;
+		for(int i = 0; i < TIME_BUCKETS - 1; i++){
+			seen += times[i];
+			if(seen >= wanted) return 1L << i;
+		}
+		return -1;
+	}
+	
+	@Override
+	public long getPacketsSent(){
+		return sent;
+	}
+	
+	@Override
+	public long getPacketsReceived(){
+		return received;
+	}
+	
+	@Override
+	public long getPacketsDropped(){
+		return dropped;
+	}
+	
+	@Override
+	public long getLIPBytes(){
+		return lipBytes;
+	}
+	
+	@Override
+	public long[] getDeliveryTimes(){
+		return times.clone();
+	}
+}
@@ -0,0 +1,433 @@
+package lordfokas.stargatetech2.modules.automation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import lordfokas.stargatetech2.api.bus.BusPacket;
+import lordfokas.stargatetech2.api.bus.BusPacketLIP;
+import lordfokas.stargatetech2.api.bus.BusPacketLIP.LIPMetadata;
+import lordfokas.stargatetech2.api.bus.BusPacketNetScan;
+import lordfokas.stargatetech2.api.bus.BusPacketNetScan.Device;
+import lordfokas.stargatetech2.api.bus.IBusDevice;
+import lordfokas.stargatetech2.api.bus.IBusInterface;
+import lordfokas.stargatetech2.util.ConfigServer;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.World;
+
+/**
+ * A set of devices connected to each other by bus cables.
+ * The cables themselves are tracked by the {@link BusNetworkRegistry}.
+ * <br>
+ * Every interface plugged into the network keeps a reference to it instead of a
+ * copy of everyone else's address, and the interfaces the members resolve to are
+ * cached here, along with a routing table, until either the member list changes
+ * or some tile entity may have come or gone.
+ * <br>
+ * Packets can also be queued on a network, to be delivered at the end of the server
+ * tick, a limited amount per network and tick, so devices that keep answering each
+ * other can neither recurse without end nor stall the server.
+ * <br>
+ * Every network and interface counts its own load in a {@link BusMetrics}.
+ */
+public final class BusNetwork {
+	private static final ArrayList<BusNetwork> queued = new ArrayList();
+	
+	private final World world;
+	private final LinkedHashSet<RemoteDevice> members = new LinkedHashSet();
+	private final HashSet<Long> cables = new HashSet();
+	private int generation = 0;
+	private int resolvedGeneration = -1;
+	private boolean isStale = true;
+	private BusInterface[] endpoints = new BusInterface[0];
+	private BusInterface[] sniffers = new BusInterface[0];
+	private HashMap<Short, BusInterface[]> routes = new HashMap();
+	private boolean hasDirectory = false;
+	private int directoryVersion = 0;
+	private BusInterface[] directoryInterfaces = new BusInterface[0];
+	private Device[] directoryDevices = new Device[0];
+	private List<Device> directory = Collections.emptyList();
+	private final ArrayDeque<QueuedPacket> queue = new ArrayDeque();
+	private final HashMap<Broadcast, QueuedPacket> broadcasts = new HashMap();
+	private boolean isQueued = false;
+	private final BusMetrics metrics = new BusMetrics();
+	
+	private static final class QueuedPacket{
+		private final BusPacket packet;
+		private final BusInterface sender;
+		private final Broadcast broadcast;
+		private ArrayList<BusPacket> duplicates = null;
+		
+		private QueuedPacket(BusPacket packet, BusInterface sender, Broadcast broadcast){
+			this.packet = packet;
+			this.sender = sender;
+			this.broadcast = broadcast;
+		}
+	}
+	
+	/**
+	 * What makes two LIP broadcasts from the same interface identical.
+	 */
+	private static final class Broadcast{
+		private final BusInterface sender;
+		private final short target;
+		private final HashMap<String, String> data = new HashMap();
+		
+		private Broadcast(BusInterface sender, BusPacketLIP lip){
+			this.sender = sender;
+			this.target = lip.getTarget();
+			for(String key : lip.getEntryList()){
+				data.put(key, lip.get(key));
+			}
+			LIPMetadata metadata = lip.getMetadata();
+			if(metadata != null){
+				// Entry keys are always lower case, so these can't clash with them.
+				data.put("META_MOD", metadata.modID);
+				data.put("META_DEVICE", metadata.deviceName);
+				data.put("META_PLAYER", metadata.playerName);
+			}
+		}
+		
+		@Override
+		public int hashCode(){
+			return System.identityHashCode(sender) * 31 + data.hashCode() + target;
+		}
+		
+		@Override
+		public boolean equals(Object obj){
+			if(!(obj instanceof Broadcast)) return false;
+			Broadcast other = (Broadcast) obj;
+			return sender == other.sender && target == other.target && data.equals(other.data);
+		}
+	}
+	
+	public BusNetwork(World world){
+		this.world = world;
+	}
+	
+	/**
+	 * Marks the resolved endpoints of this network as stale. Called whenever one of its
+	 * devices may have changed its address or its tile entity may have been loaded or unloaded.
+	 */
+	public void invalidate(){
+		isStale = true;
+	}
+	
+	public World getWorld(){
+		return world;
+	}
+	
+	public void add(RemoteDevice device){
+		if(members.add(device)){
+			generation++;
+		}
+	}
+	
+	public void remove(RemoteDevice device){
+		if(members.remove(device)){
+			generation++;
+		}
+	}
+	
+	public boolean contains(RemoteDevice device){
+		return members.contains(device);
+	}
+	
+	public Collection<RemoteDevice> getMembers(){
+		return Collections.unmodifiableSet(members);
+	}
+	
+	public int getCableCount(){
+		return cables.size();
+	}
+	
+	Collection<Long> getCables(){
+		return cables;
+	}
+	
+	void addCable(long cable){
+		cables.add(Long.valueOf(cable));
+	}
+	
+	void removeCable(long cable){
+		cables.remove(Long.valueOf(cable));
+	}
+	
+	/**
+	 * @return A number that changes every time a device joins or leaves this network.
+	 */
+	public int getGeneration(){
+		return generation;
+	}
+	
+	/**
+	 * @return The load counters of this network.
+	 */
+	public BusMetrics getMetrics(){
+		return metrics;
+	}
+	
+	/**
+	 * @return How many packets are waiting in this network's queue.
+	 */
+	public int getQueueSize(){
+		return queue.size();
+	}
+	
+	/**
+	 * @return The interfaces plugged into this network that are currently loaded.
+	 */
+	BusInterface[] getEndpoints(){
+		resolve();
+		return endpoints;
+	}
+	
+	/**
+	 * Queues a packet to be delivered at the end of the tick.
+	 * An identical LIP broadcast from the same sender that is still waiting is delivered in its place.
+	 */
+	void enqueue(BusPacket packet, BusInterface sender){
+		Broadcast broadcast = null;
+		if(packet instanceof BusPacketLIP && BusInterface.isBroadcast(packet.getTarget())){
+			broadcast = new Broadcast(sender, (BusPacketLIP) packet);
+			QueuedPacket original = broadcasts.get(broadcast);
+			if(original != null){
+				if(original.duplicates == null){
+					original.duplicates = new ArrayList();
+				}
+				original.duplicates.add(packet);
+				return;
+			}
+		}
+		QueuedPacket entry = new QueuedPacket(packet, sender, broadcast);
+		queue.add(entry);
+		if(broadcast != null){
+			broadcasts.put(broadcast, entry);
+		}
+		if(!isQueued){
+			isQueued = true;
+			queued.add(this);
+		}
+	}
+	
+	/**
+	 * Delivers the packets queued on every network, up to the configured budget per network.
+	 * Called at the end of every server tick.
+	 */
+	public static void deliverQueued(){
+		if(queued.isEmpty()) return;
+		BusNetwork[] networks = queued.toArray(new BusNetwork[queued.size()]);
+		queued.clear();
+		for(BusNetwork network : networks){
+			network.isQueued = false;
+			network.deliverQueued(ConfigServer.busPacketsPerTick);
+		}
+	}
+	
+	private void deliverQueued(int budget){
+		for(int i = 0; i < budget && !queue.isEmpty(); i++){
+			QueuedPacket entry = queue.poll();
+			if(entry.broadcast != null){
+				broadcasts.remove(entry.broadcast);
+			}
+			entry.sender.deliver(entry.packet);
+			if(entry.duplicates != null){
+				for(BusPacket duplicate : entry.duplicates){
+					for(Object response : entry.packet.getResponses()){
+						duplicate.addResponse(response);
+					}
+					entry.sender.onDelivered(duplicate);
+				}
+			}
+		}
+		if(!queue.isEmpty() && !isQueued){
+			isQueued = true;
+			queued.add(this);
+		}
+	}
+	
+	/**
+	 * Drops the packets queued on the networks of a world that is being unloaded.
+	 */
+	public static void discardQueued(World world){
+		for(int i = queued.size() - 1; i >= 0; i--){
+			BusNetwork network = queued.get(i);
+			if(network.world == world){
+				for(QueuedPacket entry : network.queue){
+					network.drop(entry.sender, entry.packet);
+					if(entry.duplicates != null){
+						for(BusPacket duplicate : entry.duplicates){
+							network.drop(entry.sender, duplicate);
+						}
+					}
+				}
+				network.queue.clear();
+				network.broadcasts.clear();
+				network.isQueued = false;
+				queued.remove(i);
+			}
+		}
+	}
+	
+	private void drop(BusInterface sender, BusPacket packet){
+		metrics.onDropped();
+		sender.drop(packet);
+	}
+	
+	/**
+	 * Delivers a packet to every interface in this network that may want it.
+	 *
+	 * @param sender The interface sending the packet, which never gets it back.
+	 * @param delivered Interfaces that already got this packet from another network, or null.
+	 */
+	public void deliver(BusPacket packet, BusInterface sender, Set<BusInterface> delivered){
+		long start = System.nanoTime();
+		metrics.onSent(packet);
+		if(packet instanceof BusPacketNetScan){
+			scan((BusPacketNetScan) packet, sender, delivered);
+		}else{
+			route(packet, sender, delivered);
+		}
+		metrics.onDelivered(System.nanoTime() - start);
+	}
+	
+	private void route(BusPacket packet, BusInterface sender, Set<BusInterface> delivered){
+		resolve();
+		BusInterface[] targets = endpoints;
+		short target = packet.getTarget();
+		if(!BusInterface.isBroadcast(target)){
+			BusInterface[] sniffing = sniffers;
+			targets = routes.get(Short.valueOf(target));
+			if(targets != null){
+				deliver(packet, sender, delivered, targets, metrics);
+			}
+			targets = sniffing;
+		}
+		// recvPacket still checks the address masks, so a sniffer only gets what it asked for.
+		deliver(packet, sender, delivered, targets, metrics);
+	}
+	
+	private static void deliver(BusPacket packet, BusInterface sender, Set<BusInterface> delivered, BusInterface[] targets, BusMetrics metrics){
+		for(int i = 0; i < targets.length; i++){
+			BusInterface target = targets[i];
+			if(target == sender) continue;
+			if(delivered != null && !delivered.add(target)) continue;
+			target.recvPacket(packet, metrics);
+		}
+	}
+	
+	/**
+	 * Answers a network scan from the directory, without delivering anything.
+	 */
+	private void scan(BusPacketNetScan scan, BusInterface sender, Set<BusInterface> delivered){
+		getDirectory();
+		short target = scan.getTarget();
+		for(int i = 0; i < directoryInterfaces.length; i++){
+			BusInterface endpoint = directoryInterfaces[i];
+			if(endpoint == sender) continue;
+			if(!BusInterface.accepts(directoryDevices[i].address, target)) continue;
+			if(delivered != null && !delivered.add(endpoint)) continue;
+			scan.addDevice(directoryDevices[i]);
+		}
+	}
+	
+	/**
+	 * @return Every device in this network. The list can't be changed and stays the same until a device joins
+	 * or leaves the network or changes its address or enabled state, when a new one is made.
+	 */
+	public List<Device> getDirectory(){
+		resolve();
+		if(!hasDirectory || !isDirectoryCurrent()){
+			directoryInterfaces = endpoints;
+			directoryDevices = new Device[endpoints.length];
+			for(int i = 0; i < endpoints.length; i++){
+				directoryDevices[i] = endpoints[i].describe();
+			}
+			directory = Collections.unmodifiableList(Arrays.asList(directoryDevices));
+			directoryVersion++;
+			hasDirectory = true;
+		}
+		return directory;
+	}
+	
+	/**
+	 * @return A number that changes every time the directory of this network changes.
+	 */
+	public int getDirectoryVersion(){
+		getDirectory();
+		return directoryVersion;
+	}
+	
+	private boolean isDirectoryCurrent(){
+		if(directoryInterfaces != endpoints) return false;
+		for(int i = 0; i < directoryDevices.length; i++){
+			BusInterface endpoint = directoryInterfaces[i];
+			if(endpoint.getAddress() != directoryDevices[i].address || endpoint.isEnabled() != directoryDevices[i].enabled) return false;
+		}
+		return true;
+	}
+	
+	private void resolve(){
+		if(resolvedGeneration == generation && !isStale) return;
+		Set<BusInterface> memory = Collections.newSetFromMap(new IdentityHashMap());
+		ArrayList<BusInterface> resolved = new ArrayList();
+		for(RemoteDevice device : members){
+			if(!world.isBlockLoaded(device.pos)) continue;
+			TileEntity te = world.getTileEntity(device.pos);
+			if(te instanceof IBusDevice){
+				IBusInterface[] interfaces = ((IBusDevice)te).getInterfaces(device.side);
+				if(interfaces == null){
+					continue;
+				}
+				for(IBusInterface i : interfaces){
+					if(i instanceof BusInterface && memory.add((BusInterface)i)){
+						resolved.add((BusInterface)i);
+					}
+				}
+			}
+		}
+		endpoints = resolved.toArray(new BusInterface[resolved.size()]);
+		buildRoutes();
+		resolvedGeneration = generation;
+		isStale = false;
+	}
+	
+	/**
+	 * Sorts the endpoints by the addresses they listen on. Interfaces with a promiscuous
+	 * net or host part may accept packets for many addresses, so they're kept apart and
+	 * get every packet; everyone else only gets packets sent to exactly their address.
+	 */
+	private void buildRoutes(){
+		HashMap<Short, ArrayList<BusInterface>> exact = new HashMap();
+		ArrayList<BusInterface> promiscuous = new ArrayList();
+		for(BusInterface endpoint : endpoints){
+			short address = endpoint.getAddress();
+			if(BusInterface.isPromiscuous(address)){
+				promiscuous.add(endpoint);
+			}else{
+				Short key = Short.valueOf(address);
+				ArrayList<BusInterface> list = exact.get(key);
+				if(list == null){
+					list = new ArrayList();
+					exact.put(key, list);
+				}
+				list.add(endpoint);
+			}
+		}
+		sniffers = promiscuous.toArray(new BusInterface[promiscuous.size()]);
+		routes = new HashMap();
+		for(Entry<Short, ArrayList<BusInterface>> route : exact.entrySet()){
+			ArrayList<BusInterface> list = route.getValue();
+			routes.put(route.getKey(), list.toArray(new BusInterface[list.size()]));
+		}
+	}
+}
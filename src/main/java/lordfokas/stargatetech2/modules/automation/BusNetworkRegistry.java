@@ -0,0 +1,377 @@
+package lordfokas.stargatetech2.modules.automation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import lordfokas.stargatetech2.api.bus.IBusDevice;
+import lordfokas.stargatetech2.api.bus.IBusInterface;
+import lordfokas.stargatetech2.modules.ModuleAutomation;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+/**
+ * Keeps track of the bus network every known cable in a world belongs to.
+ * <br>
+ * A network is found by walking its cables the first time it's needed after the world
+ * loads, and from then on it's kept up to date one block at a time: a new cable joins or
+ * merges the networks around it, and a removed cable only looks as far as it takes to
+ * tell whether its neighbours are still connected to each other.
+ * Positions are kept packed in longs, as {@link BlockPos#toLong()} does.
+ * <br>
+ * The devices plugged into each network are also indexed by chunk, so loading or
+ * unloading a chunk only makes the networks of the devices inside it look them up again.
+ */
+public final class BusNetworkRegistry {
+	private static final HashMap<Integer, BusNetworkRegistry> registries = new HashMap();
+	
+	private final World world;
+	private final HashMap<Long, BusNetwork> cables = new HashMap();
+	private final HashMap<Long, HashSet<RemoteDevice>> chunks = new HashMap();
+	
+	private BusNetworkRegistry(World world){
+		this.world = world;
+	}
+	
+	public static BusNetworkRegistry get(World world){
+		Integer dim = Integer.valueOf(world.provider.getDimension());
+		BusNetworkRegistry registry = registries.get(dim);
+		if(registry == null || registry.world != world){
+			registry = new BusNetworkRegistry(world);
+			registries.put(dim, registry);
+		}
+		return registry;
+	}
+	
+	public static void unload(World world){
+		Integer dim = Integer.valueOf(world.provider.getDimension());
+		BusNetworkRegistry registry = registries.get(dim);
+		if(registry != null && registry.world == world){
+			registries.remove(dim);
+		}
+	}
+	
+	/**
+	 * @return The network of the cable in this position, or null if there's no cable there.
+	 */
+	public BusNetwork getNetwork(BlockPos pos){
+		BusNetwork network = cables.get(Long.valueOf(pos.toLong()));
+		if(network == null && isCable(pos)){
+			network = discover(pos.toLong());
+		}
+		return network;
+	}
+	
+	/**
+	 * @return Every network found in this world so far.
+	 */
+	public Collection<BusNetwork> getNetworks(){
+		Set<BusNetwork> networks = Collections.newSetFromMap(new IdentityHashMap());
+		networks.addAll(cables.values());
+		return networks;
+	}
+	
+	/**
+	 * Makes the networks of the devices in this chunk look their interfaces up again.
+	 * Called when the chunk is loaded or unloaded.
+	 */
+	public void invalidateChunk(int cx, int cz){
+		HashSet<RemoteDevice> devices = chunks.get(chunk(cx, cz));
+		if(devices == null) return;
+		for(RemoteDevice device : devices){
+			BusNetwork network = cables.get(Long.valueOf(device.pos.offset(device.side).toLong()));
+			if(network != null){
+				network.invalidate();
+			}
+		}
+	}
+	
+	/**
+	 * Makes the networks of the device in this position look its interfaces up again.
+	 * Called when the device changes its address.
+	 */
+	public void invalidate(BlockPos pos){
+		for(EnumFacing dir : EnumFacing.values()){
+			BusNetwork network = cables.get(Long.valueOf(pos.offset(dir).toLong()));
+			if(network != null && network.contains(new RemoteDevice(pos, dir))){
+				network.invalidate();
+			}
+		}
+	}
+	
+	/**
+	 * Called when a cable or a bus device is placed in this position.
+	 */
+	public void add(BlockPos pos){
+		if(isCable(pos)){
+			addCable(pos);
+		}else if(world.getTileEntity(pos) instanceof IBusDevice){
+			addDevice(pos);
+		}
+	}
+	
+	/**
+	 * Called after a cable or a bus device was removed from this position.
+	 */
+	public void remove(BlockPos pos){
+		BusNetwork network = cables.remove(Long.valueOf(pos.toLong()));
+		if(network != null){
+			removeCable(pos, network);
+		}else{
+			removeDevice(pos);
+		}
+	}
+	
+	private boolean isCable(BlockPos pos){
+		return world.getBlockState(pos).getBlock() instanceof BlockBusCable;
+	}
+	
+	private void register(long cable, BusNetwork network){
+		cables.put(Long.valueOf(cable), network);
+		network.addCable(cable);
+	}
+	
+	private BusNetwork discover(long start){
+		BusNetwork network = new BusNetwork(world);
+		ArrayDeque<Long> queue = new ArrayDeque();
+		register(start, network);
+		queue.add(Long.valueOf(start));
+		Long cable;
+		while((cable = queue.poll()) != null){
+			BlockPos pos = BlockPos.fromLong(cable.longValue());
+			for(EnumFacing dir : EnumFacing.values()){
+				ConnectionType connection = ModuleAutomation.busCable.getBusConnection(world, pos, dir);
+				BlockPos next = pos.offset(dir);
+				if(connection.hasPlug()){
+					join(network, new RemoteDevice(next, dir.getOpposite()));
+				}else if(connection.isConnected() && !cables.containsKey(Long.valueOf(next.toLong()))){
+					register(next.toLong(), network);
+					queue.add(Long.valueOf(next.toLong()));
+				}
+			}
+		}
+		for(RemoteDevice device : network.getMembers()){
+			setNetwork(device, network);
+		}
+		return network;
+	}
+	
+	private void addCable(BlockPos pos){
+		BusNetwork network = null;
+		for(EnumFacing dir : EnumFacing.values()){
+			// Finding a neighbour's network for the first time may walk into this cable as well.
+			BusNetwork other = getNetwork(pos.offset(dir));
+			if(other == null || other == network) continue;
+			network = (network == null) ? other : merge(network, other);
+		}
+		if(network == null){
+			network = new BusNetwork(world);
+		}
+		if(!cables.containsKey(Long.valueOf(pos.toLong()))){
+			register(pos.toLong(), network);
+		}
+		for(EnumFacing dir : EnumFacing.values()){
+			if(ModuleAutomation.busCable.getBusConnection(world, pos, dir).hasPlug()){
+				RemoteDevice device = new RemoteDevice(pos.offset(dir), dir.getOpposite());
+				join(network, device);
+				setNetwork(device, network);
+			}
+		}
+	}
+	
+	private void addDevice(BlockPos pos){
+		for(EnumFacing dir : EnumFacing.values()){
+			RemoteDevice device = new RemoteDevice(pos, dir);
+			BusNetwork network = null;
+			BlockPos cable = pos.offset(dir);
+			if(ModuleAutomation.busCable.getBusConnection(world, cable, dir.getOpposite()).hasPlug()){
+				network = getNetwork(cable);
+			}
+			if(network != null){
+				join(network, device);
+			}
+			setNetwork(device, network);
+		}
+	}
+	
+	private void removeDevice(BlockPos pos){
+		for(EnumFacing dir : EnumFacing.values()){
+			BusNetwork network = cables.get(Long.valueOf(pos.offset(dir).toLong()));
+			if(network != null){
+				leave(network, new RemoteDevice(pos, dir));
+			}
+		}
+	}
+	
+	private void removeCable(BlockPos pos, BusNetwork network){
+		network.removeCable(pos.toLong());
+		ArrayList<Long> neighbours = new ArrayList();
+		for(EnumFacing dir : EnumFacing.values()){
+			BlockPos next = pos.offset(dir);
+			RemoteDevice device = new RemoteDevice(next, dir.getOpposite());
+			if(network.contains(device)){
+				leave(network, device);
+				setNetwork(device, null);
+			}
+			Long cable = Long.valueOf(next.toLong());
+			if(cables.get(cable) == network){
+				neighbours.add(cable);
+			}
+		}
+		if(neighbours.size() > 1){
+			split(network, neighbours);
+		}
+	}
+	
+	/**
+	 * Moves the smaller network into the bigger one.
+	 */
+	private BusNetwork merge(BusNetwork a, BusNetwork b){
+		if(a.getCableCount() < b.getCableCount()){
+			BusNetwork swap = a;
+			a = b;
+			b = swap;
+		}
+		for(Long cable : b.getCables()){
+			register(cable.longValue(), a);
+		}
+		for(RemoteDevice device : b.getMembers()){
+			join(a, device);
+			setNetwork(device, a);
+		}
+		return a;
+	}
+	
+	/**
+	 * Walks the cables from every neighbour of a removed cable at the same pace, joining
+	 * the walks that meet. A walk that runs out of cables before meeting all the others has
+	 * gone around a piece that was cut off, and that piece becomes a network of its own.
+	 * It stops as soon as a single walk is left, so the cost depends on the size of the pieces
+	 * that were cut off, or of the loop that keeps them together, not on the whole network.
+	 */
+	private void split(BusNetwork network, ArrayList<Long> starts){
+		int fronts = starts.size();
+		int[] group = new int[fronts];
+		boolean[] detached = new boolean[fronts];
+		ArrayDeque<Long>[] queues = new ArrayDeque[fronts];
+		ArrayList<Long>[] visited = new ArrayList[fronts];
+		HashMap<Long, Integer> owners = new HashMap();
+		for(int f = 0; f < fronts; f++){
+			group[f] = f;
+			queues[f] = new ArrayDeque();
+			visited[f] = new ArrayList();
+			queues[f].add(starts.get(f));
+			visited[f].add(starts.get(f));
+			owners.put(starts.get(f), Integer.valueOf(f));
+		}
+		int live = fronts;
+		while(live > 1){
+			for(int f = 0; f < fronts; f++){
+				Long cable = queues[f].poll();
+				if(cable == null) continue;
+				BlockPos pos = BlockPos.fromLong(cable.longValue());
+				for(EnumFacing dir : EnumFacing.values()){
+					Long next = Long.valueOf(pos.offset(dir).toLong());
+					if(cables.get(next) != network) continue;
+					Integer owner = owners.get(next);
+					if(owner == null){
+						owners.put(next, Integer.valueOf(f));
+						queues[f].add(next);
+						visited[f].add(next);
+					}else{
+						int a = find(group, f), b = find(group, owner.intValue());
+						if(a != b){
+							group[b] = a;
+							live--;
+						}
+					}
+				}
+			}
+			for(int g = 0; g < fronts && live > 1; g++){
+				if(detached[g] || find(group, g) != g) continue;
+				boolean exhausted = true;
+				for(int f = 0; f < fronts; f++){
+					if(find(group, f) == g && !queues[f].isEmpty()) exhausted = false;
+				}
+				if(exhausted){
+					detach(network, group, g, visited);
+					detached[g] = true;
+					live--;
+				}
+			}
+		}
+	}
+	
+	private static int find(int[] group, int f){
+		while(group[f] != f){
+			f = group[f] = group[group[f]];
+		}
+		return f;
+	}
+	
+	private void detach(BusNetwork network, int[] group, int g, ArrayList<Long>[] visited){
+		BusNetwork piece = new BusNetwork(world);
+		for(int f = 0; f < group.length; f++){
+			if(find(group, f) != g) continue;
+			for(Long cable : visited[f]){
+				network.removeCable(cable.longValue());
+				register(cable.longValue(), piece);
+				BlockPos pos = BlockPos.fromLong(cable.longValue());
+				for(EnumFacing dir : EnumFacing.values()){
+					RemoteDevice device = new RemoteDevice(pos.offset(dir), dir.getOpposite());
+					if(network.contains(device)){
+						network.remove(device);
+						join(piece, device);
+						setNetwork(device, piece);
+					}
+				}
+			}
+		}
+	}
+	
+	private void join(BusNetwork network, RemoteDevice device){
+		network.add(device);
+		Long key = chunk(device.pos.getX() >> 4, device.pos.getZ() >> 4);
+		HashSet<RemoteDevice> devices = chunks.get(key);
+		if(devices == null){
+			devices = new HashSet();
+			chunks.put(key, devices);
+		}
+		devices.add(device);
+	}
+	
+	private void leave(BusNetwork network, RemoteDevice device){
+		network.remove(device);
+		Long key = chunk(device.pos.getX() >> 4, device.pos.getZ() >> 4);
+		HashSet<RemoteDevice> devices = chunks.get(key);
+		if(devices != null && devices.remove(device) && devices.isEmpty()){
+			chunks.remove(key);
+		}
+	}
+	
+	private static Long chunk(int cx, int cz){
+		return Long.valueOf((((long)cx) << 32) | (cz & 0xFFFFFFFFL));
+	}
+	
+	private void setNetwork(RemoteDevice device, BusNetwork network){
+		// Interfaces that aren't loaded will look for their networks when they first send a packet.
+		if(!world.isBlockLoaded(device.pos)) return;
+		TileEntity te = world.getTileEntity(device.pos);
+		if(te instanceof IBusDevice){
+			IBusInterface[] interfaces = ((IBusDevice)te).getInterfaces(device.side);
+			if(interfaces == null) return;
+			for(IBusInterface b : interfaces){
+				if(b instanceof BusInterface){
+					((BusInterface)b).setNetwork(device.side, network);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package lordfokas.stargatetech2.modules.automation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lordfokas.stargatetech2.api.bus.BusPacket;
+import lordfokas.stargatetech2.api.bus.BusPacketLIP;
+
+/**
+ * Remembers the last packets a bus interface sent or was given, to find out who is
+ * flooding a network. It only copies a few numbers out of each packet into arrays
+ * that are allocated once, so it neither keeps packets alive nor changes how they're delivered.
+ */
+public final class BusSniffer {
+	public static final byte SENT		= 0;
+	public static final byte RECEIVED	= 1;
+	public static final byte DROPPED	= 2;
+	
+	private final long[] ticks;
+	private final byte[] kinds;
+	private final short[] senders;
+	private final short[] targets;
+	private final int[] protocols;
+	private final int[] sizes;
+	private int next = 0;
+	private int count = 0;
+	private long total = 0;
+	
+	public static final class Entry{
+		public final long tick;
+		public final byte kind;
+		public final short sender;
+		public final short target;
+		public final int protocol;
+		public final int size;
+		
+		private Entry(long tick, byte kind, short sender, short target, int protocol, int size){
+			this.tick = tick;
+			this.kind = kind;
+			this.sender = sender;
+			this.target = target;
+			this.protocol = protocol;
+			this.size = size;
+		}
+	}
+	
+	public BusSniffer(int capacity){
+		if(capacity < 1) capacity = 1;
+		ticks = new long[capacity];
+		kinds = new byte[capacity];
+		senders = new short[capacity];
+		targets = new short[capacity];
+		protocols = new int[capacity];
+		sizes = new int[capacity];
+	}
+	
+	void record(long tick, byte kind, BusPacket packet){
+		ticks[next] = tick;
+		kinds[next] = kind;
+		senders[next] = packet.getSender();
+		targets[next] = packet.getTarget();
+		protocols[next] = packet.getProtocolID();
+		sizes[next] = (packet instanceof BusPacketLIP) ? ((BusPacketLIP)packet).getSize() : -1;
+		next = (next + 1) % ticks.length;
+		if(count < ticks.length) count++;
+		total++;
+	}
+	
+	/**
+	 * @return How many packets were recorded, including the ones that were already overwritten.
+	 */
+	public long getTotal(){
+		return total;
+	}
+	
+	/**
+	 * @return A copy of the packets that are still in the buffer, oldest first.
+	 */
+	public List<Entry> getEntries(){
+		ArrayList<Entry> entries = new ArrayList(count);
+		int first = (next - count + ticks.length) % ticks.length;
+		for(int i = 0; i < count; i++){
+			int slot = (first + i) % ticks.length;
+			entries.add(new Entry(ticks[slot], kinds[slot], senders[slot], targets[slot], protocols[slot], sizes[slot]));
+		}
+		return entries;
+	}
+	
+	public void clear(){
+		next = 0;
+		count = 0;
+		total = 0;
+	}
+}
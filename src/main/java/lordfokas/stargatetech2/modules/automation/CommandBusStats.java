@@ -0,0 +1,205 @@
+package lordfokas.stargatetech2.modules.automation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import lordfokas.stargatetech2.api.bus.IBusDevice;
+import lordfokas.stargatetech2.api.bus.IBusInterface;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraft.world.World;
+
+/**
+ * Shows which bus networks and interfaces carry the most packets, and records
+ * the packets of single interfaces with a {@link BusSniffer}.
+ */
+public class CommandBusStats extends CommandBase {
+	private static final int DEFAULT_COUNT = 10;
+	private static final int DEFAULT_SNIFFER_SIZE = 64;
+	
+	private static final Comparator<BusMetrics> BY_LOAD = new Comparator<BusMetrics>(){
+		@Override
+		public int compare(BusMetrics a, BusMetrics b){
+			long la = a.getPacketsSent() + a.getPacketsReceived() + a.getPacketsDropped();
+			long lb = b.getPacketsSent() + b.getPacketsReceived() + b.getPacketsDropped();
+			return la < lb ? 1 : (la > lb ? -1 : 0);
+		}
+	};
+	
+	@Override
+	public String getCommandName(){
+		return "busstats";
+	}
+	
+	@Override
+	public String getCommandUsage(ICommandSender sender){
+		return "commands.busstats.usage";
+	}
+	
+	@Override
+	public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+		if(args.length < 1){
+			throw new WrongUsageException("commands.busstats.usage", new Object[0]);
+		}
+		String action = args[0];
+		if(action.equals("networks")){
+			listNetworks(server, sender, args.length > 1 ? parseInt(args[1], 1) : DEFAULT_COUNT);
+		}else if(action.equals("interfaces")){
+			listInterfaces(server, sender, args.length > 1 ? parseInt(args[1], 1) : DEFAULT_COUNT);
+		}else if(action.equals("sniff") && args.length >= 4){
+			BlockPos pos = parseBlockPos(sender, args, 1, false);
+			if(args.length > 4 && args[4].equals("off")){
+				sniff(sender, pos, 0);
+			}else{
+				sniff(sender, pos, args.length > 4 ? parseInt(args[4], 1, 4096) : DEFAULT_SNIFFER_SIZE);
+			}
+		}else if(action.equals("dump") && args.length >= 4){
+			dump(sender, parseBlockPos(sender, args, 1, false), args.length > 4 ? parseInt(args[4], 1) : DEFAULT_COUNT);
+		}else if(action.equals("reset")){
+			reset(server);
+			send(sender, "Bus counters were reset.");
+		}else{
+			throw new WrongUsageException("commands.busstats.usage", new Object[0]);
+		}
+	}
+	
+	private void listNetworks(MinecraftServer server, ICommandSender sender, int count){
+		ArrayList<BusNetwork> networks = new ArrayList();
+		for(World world : server.worldServers){
+			networks.addAll(BusNetworkRegistry.get(world).getNetworks());
+		}
+		final Comparator<BusMetrics> order = BY_LOAD;
+		Collections.sort(networks, new Comparator<BusNetwork>(){
+			@Override
+			public int compare(BusNetwork a, BusNetwork b){
+				return order.compare(a.getMetrics(), b.getMetrics());
+			}
+		});
+		send(sender, "Busiest bus networks (" + networks.size() + " in total):");
+		for(int i = 0; i < networks.size() && i < count; i++){
+			BusNetwork network = networks.get(i);
+			BlockPos pos = BlockPos.fromLong(network.getCables().iterator().next().longValue());
+			send(sender, "dim " + network.getWorld().provider.getDimension() + " @ " + format(pos) + ", "
+				+ network.getCableCount() + " cables, " + network.getMembers().size() + " devices, "
+				+ network.getQueueSize() + " queued: " + format(network.getMetrics()));
+		}
+	}
+	
+	private void listInterfaces(MinecraftServer server, ICommandSender sender, int count){
+		ArrayList<BusInterface> interfaces = new ArrayList();
+		for(World world : server.worldServers){
+			for(BusNetwork network : BusNetworkRegistry.get(world).getNetworks()){
+				for(BusInterface endpoint : network.getEndpoints()){
+					// Interfaces connected to several networks are only listed once.
+					if(!interfaces.contains(endpoint)) interfaces.add(endpoint);
+				}
+			}
+		}
+		final Comparator<BusMetrics> order = BY_LOAD;
+		Collections.sort(interfaces, new Comparator<BusInterface>(){
+			@Override
+			public int compare(BusInterface a, BusInterface b){
+				return order.compare(a.getMetrics(), b.getMetrics());
+			}
+		});
+		send(sender, "Busiest bus interfaces (" + interfaces.size() + " loaded):");
+		for(int i = 0; i < interfaces.size() && i < count; i++){
+			BusInterface endpoint = interfaces.get(i);
+			IBusDevice device = endpoint.getDevice();
+			send(sender, "dim " + device.getWorld().provider.getDimension() + " @ " + device.getXCoord() + " " + device.getYCoord() + " " + device.getZCoord()
+				+ ", address " + String.format("%04X", endpoint.getAddress()) + ": " + format(endpoint.getMetrics()));
+		}
+	}
+	
+	private void sniff(ICommandSender sender, BlockPos pos, int size) throws CommandException {
+		ArrayList<BusInterface> interfaces = getInterfaces(sender.getEntityWorld(), pos);
+		for(BusInterface endpoint : interfaces){
+			endpoint.setSniffer(size > 0 ? new BusSniffer(size) : null);
+		}
+		if(size > 0){
+			send(sender, "Recording the last " + size + " packets of " + interfaces.size() + " interface(s) at " + format(pos) + ".");
+		}else{
+			send(sender, "Stopped recording packets at " + format(pos) + ".");
+		}
+	}
+	
+	private void dump(ICommandSender sender, BlockPos pos, int count) throws CommandException {
+		for(BusInterface endpoint : getInterfaces(sender.getEntityWorld(), pos)){
+			BusSniffer sniffer = endpoint.getSniffer();
+			if(sniffer == null){
+				send(sender, "Interface " + String.format("%04X", endpoint.getAddress()) + " isn't being recorded.");
+				continue;
+			}
+			List<BusSniffer.Entry> entries = sniffer.getEntries();
+			send(sender, "Interface " + String.format("%04X", endpoint.getAddress()) + ", " + sniffer.getTotal() + " packets recorded:");
+			for(int i = Math.max(0, entries.size() - count); i < entries.size(); i++){
+				BusSniffer.Entry entry = entries.get(i);
+				String kind = entry.kind == BusSniffer.SENT ? "sent" : (entry.kind == BusSniffer.RECEIVED ? "received" : "dropped");
+				send(sender, "tick " + entry.tick + " " + kind + " " + String.format("%04X -> %04X", entry.sender, entry.target)
+					+ " protocol " + entry.protocol + (entry.size >= 0 ? ", " + entry.size + " LIP bytes" : ""));
+			}
+		}
+	}
+	
+	private void reset(MinecraftServer server){
+		for(World world : server.worldServers){
+			for(BusNetwork network : BusNetworkRegistry.get(world).getNetworks()){
+				network.getMetrics().reset();
+				for(BusInterface endpoint : network.getEndpoints()){
+					endpoint.getMetrics().reset();
+				}
+			}
+		}
+	}
+	
+	private static ArrayList<BusInterface> getInterfaces(World world, BlockPos pos) throws CommandException {
+		ArrayList<BusInterface> interfaces = new ArrayList();
+		TileEntity te = world.getTileEntity(pos);
+		if(te instanceof IBusDevice){
+			for(EnumFacing side : EnumFacing.values()){
+				IBusInterface[] sided = ((IBusDevice)te).getInterfaces(side);
+				if(sided == null) continue;
+				for(IBusInterface i : sided){
+					if(i instanceof BusInterface && !interfaces.contains(i)){
+						interfaces.add((BusInterface)i);
+					}
+				}
+			}
+		}
+		if(interfaces.isEmpty()){
+			throw new CommandException("commands.busstats.nodevice");
+		}
+		return interfaces;
+	}
+	
+	private static String format(BlockPos pos){
+		return pos.getX() + " " + pos.getY() + " " + pos.getZ();
+	}
+	
+	private static String format(BusMetrics metrics){
+		long p50 = metrics.getDeliveryTimePercentile(0.5);
+		long p99 = metrics.getDeliveryTimePercentile(0.99);
+		return metrics.getPacketsSent() + " sent, " + metrics.getPacketsReceived() + " received, "
+			+ metrics.getPacketsDropped() + " dropped, " + metrics.getLIPBytes() + " LIP bytes, delivery p50 "
+			+ time(p50) + " p99 " + time(p99);
+	}
+	
+	private static String time(long micros){
+		if(micros == 0) return "-";
+		if(micros < 0) return ">" + (1L << (BusMetrics.TIME_BUCKETS - 1)) + "us";
+		return "<" + micros + "us";
+	}
+	
+	private static void send(ICommandSender sender, String message){
+		sender.addChatMessage(new TextComponentString(message));
+	}
+}
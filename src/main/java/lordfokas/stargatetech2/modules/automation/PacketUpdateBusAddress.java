@@ -22,6 +22,7 @@ public class PacketUpdateBusAddress extends PacketCoordinates {
 		TileEntity te = player.worldObj.getTileEntity(coordinates);
 		if(te instanceof ISyncBusDevice){
 			((ISyncBusDevice)te).setAddress(address);
+			BusNetworkRegistry.get(player.worldObj).invalidate(coordinates);
 		}
 		return null;
 	}
@@ -87,7 +87,7 @@ public class TileBusAdapter /* extends BaseTileEntity__OLD_AND_FLAWED implements
 				interfaces[0].sendAllPackets();
 				LinkedList<String> deviceList = new LinkedList();
 				for(Device device : scan.getDevices()){
-					StringBuffer str = new StringBuffer();
+					StringBuilder str = new StringBuilder();
 					if(status) str.append("[").append(device.enabled ? "E" : "D").append("] ");
 					if(addr) str.append("0x").append(AddressHelper.convert(device.address)).append(" ");
 					if(name) str.append(device.name).append(" ");
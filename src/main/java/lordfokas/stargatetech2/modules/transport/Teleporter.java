@@ -1,6 +1,8 @@
 package lordfokas.stargatetech2.modules.transport;
 
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityList;
@@ -28,15 +30,60 @@ public class Teleporter{
 	public static void teleport(World worldFrom, Entity entity, World worldTo, double[] position, float yaw){
 		if(worldFrom.isRemote) return;
 		if(mcServer == null) mcServer = FMLCommonHandler.instance().getMinecraftServerInstance();
-		teleport(worldTo, entity, position, yaw);
+		Batch batch = new Batch();
+		teleport(worldTo, entity, position, yaw, batch);
+		batch.finish();
 	}
 	
-	private static Entity teleport(World world, Entity entity, double[] position, float yaw){
+	/**
+	 * Teleports a group of entities from one world to the same spot in another world.
+	 * The destination chunk is prepared once, and the world-change syncs of the players
+	 * are deferred until every entity has been moved. They are the same packets a single
+	 * teleport sends, but a player that was moved more than once is only synced once.
+	 */
+	public static void teleportBatch(World worldFrom, List<Entity> entities, World worldTo, Vec3Int_THRASH position, float yaw){
+		if(worldFrom.isRemote || entities.isEmpty()) return;
+		if(mcServer == null) mcServer = FMLCommonHandler.instance().getMinecraftServerInstance();
+		double[] pos = new double[]{((double)position.x) + 0.5D, position.y, ((double)position.z) + 0.5D};
+		Batch batch = new Batch();
+		for(Entity entity : entities){
+			teleport(worldTo, entity, pos, yaw, batch);
+		}
+		batch.finish();
+	}
+	
+	private static final class Batch{
+		private final LinkedHashSet<EntityPlayerMP> changedWorld = new LinkedHashSet();
+		private World prepared = null;
+		
+		private void prepare(World world, double[] position){
+			if(prepared == world) return;
+			((WorldServer)world).theChunkProviderServer.loadChunk(((int)position[X]) >> 4, ((int)position[Z]) >> 4);
+			prepared = world;
+		}
+		
+		private void finish(){
+			for(EntityPlayerMP player : changedWorld){
+				WorldServer world = (WorldServer) player.worldObj;
+				player.mcServer.getConfigurationManager().updateTimeAndWeatherForPlayer(player, world);
+				player.mcServer.getConfigurationManager().syncPlayerInventory(player);
+				Iterator potions = player.getActivePotionEffects().iterator();
+				while (potions.hasNext()){
+					PotionEffect effect = (PotionEffect)potions.next();
+					player.playerNetServerHandler.sendPacket(new S1DPacketEntityEffect(player.getEntityId(), effect));
+				}
+				player.playerNetServerHandler.sendPacket(new S1FPacketSetExperience(player.experience, player.experienceTotal, player.experienceLevel));
+			}
+			changedWorld.clear();
+		}
+	}
+	
+	private static Entity teleport(World world, Entity entity, double[] position, float yaw, Batch batch){
 		// If there is a mount, unmount, tp, and save for later.
 		Entity mount = entity.ridingEntity;
 		if(entity.ridingEntity != null){
 			entity.mountEntity(null);
-			mount = teleport(world, mount, position, yaw);
+			mount = teleport(world, mount, position, yaw, batch);
 		}
 		// check if we're moving to a different world.
 		boolean differentWorld = entity.worldObj != world;
@@ -73,7 +120,7 @@ public class Teleporter{
 			entity.isDead = false;
 		}
 		entity.setLocationAndAngles(position[X] + 0.5D, position[Y], position[Z] + 0.5D, yaw, entity.rotationPitch);
-		((WorldServer)world).theChunkProviderServer.loadChunk(((int)position[X]) >> 4, ((int)position[Z]) >> 4);
+		batch.prepare(world, position);
 		if(differentWorld){
 			if(!(entity instanceof EntityPlayer)) { // NOT PLAYER
 				NBTTagCompound entityNBT = new NBTTagCompound();
@@ -105,14 +152,7 @@ public class Teleporter{
 		if(entity instanceof EntityPlayerMP && differentWorld){ // PLAYER  CHANGED WORLD
 			EntityPlayerMP player = (EntityPlayerMP)entity;
 			player.theItemInWorldManager.setWorld((WorldServer)world);
-			player.mcServer.getConfigurationManager().updateTimeAndWeatherForPlayer(player, (WorldServer)world);
-			player.mcServer.getConfigurationManager().syncPlayerInventory(player);
-			Iterator potions = player.getActivePotionEffects().iterator();
-			while (potions.hasNext()){
-				PotionEffect effect = (PotionEffect)potions.next();
-				player.playerNetServerHandler.sendPacket(new S1DPacketEntityEffect(player.getEntityId(), effect));
-			}
-			player.playerNetServerHandler.sendPacket(new S1FPacketSetExperience(player.experience, player.experienceTotal, player.experienceLevel));
+			batch.changedWorld.add(player);
 		}
 		entity.setLocationAndAngles(position[X], position[Y], position[Z], yaw, entity.rotationPitch);
 		//##################################################################################
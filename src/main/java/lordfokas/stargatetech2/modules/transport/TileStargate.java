@@ -13,6 +13,7 @@ import lordfokas.stargatetech2.api.stargate.StargateEvent;
 import lordfokas.stargatetech2.api.stargate.Symbol;
 import lordfokas.stargatetech2.modules.ModuleTransport;
 import lordfokas.stargatetech2.modules.transport.bus.BusDriverStargate;
+import lordfokas.stargatetech2.modules.transport.stargates.GateStateRegistry;
 import lordfokas.stargatetech2.modules.transport.stargates.StargateNetwork;
 import lordfokas.stargatetech2.modules.transport.stargates.Wormhole;
 import lordfokas.stargatetech2.modules.world.genlists.StargateBuildList;
@@ -40,7 +41,7 @@ public class TileStargate extends BaseTileEntity__OLD_AND_FLAWED implements ITil
 	@ClientLogic private Address address;
 	
 	private BusDriverStargate networkDriver = new BusDriverStargate(this);
-	private IBusInterface[] interfaces = new IBusInterface[]{ StargateTechAPI.api().getFactory().getIBusInterface(this, networkDriver) };
+	private IBusInterface[] interfaces = new IBusInterface[]{ networkDriver.registerHandlers(StargateTechAPI.api().getFactory().getIBusInterface(this, networkDriver)) };
 	private EnergyStorage capacitor = new EnergyStorage(400000, 10000);
 	
 	@ClientLogic
@@ -76,6 +77,10 @@ public class TileStargate extends BaseTileEntity__OLD_AND_FLAWED implements ITil
 		if(addr != null){ // Stashes the address so it's visible on the client side.
 			address = addr;
 		}
+		updateGateState();
+		if(!worldObj.isRemote && StargateNetwork.instance().isLoaded()){
+			StargateNetwork.instance().onGateLoaded();
+		}
 	}
 	
 	@Override
@@ -83,6 +88,9 @@ public class TileStargate extends BaseTileEntity__OLD_AND_FLAWED implements ITil
 		isInvalidating = true;
 		super.invalidate();
 		removeDependencies();
+		if(!worldObj.isRemote){
+			GateStateRegistry.instance().remove(address);
+		}
 		if(StargateNetwork.instance().isLoaded()){
 			StargateNetwork.instance().freeMyAddress(worldObj, xCoord, yCoord, zCoord);
 		}
@@ -120,9 +128,7 @@ public class TileStargate extends BaseTileEntity__OLD_AND_FLAWED implements ITil
 	
 	@ServerLogic
 	private void serverTick(){
-		if(hasActiveWormhole() && isSource){
-			wormhole.update();
-		}
+		// Wormholes are ticked by the WormholeScheduler.
 	}
 	
 	@ServerLogic
@@ -162,12 +168,23 @@ public class TileStargate extends BaseTileEntity__OLD_AND_FLAWED implements ITil
 		if(hasActiveWormhole()){
 			return false;
 		}
+		return capacitor.getEnergyStored() >= getDialCost(addressSize);
+	}
+	
+	public static int getDialCost(int addressSize){
 		switch(addressSize){
-			case 7: return true;
-			case 8: return capacitor.getEnergyStored() >= DIAL_COST_8;
-			case 9: return capacitor.getEnergyStored() >= DIAL_COST_9;
+			case 7: return 0;
+			case 8: return DIAL_COST_8;
+			case 9: return DIAL_COST_9;
+		}
+		return Integer.MAX_VALUE;
+	}
+	
+	@ServerLogic
+	private void updateGateState(){
+		if(!worldObj.isRemote && !isInvalidating){
+			GateStateRegistry.instance().update(address, hasActiveWormhole(), capacitor.getEnergyStored());
 		}
-		return false;
 	}
 	
 	@ServerLogic
@@ -176,10 +193,12 @@ public class TileStargate extends BaseTileEntity__OLD_AND_FLAWED implements ITil
 		this.isSource = isSource;
 		PacketWormhole.sendSync(xCoord, yCoord, zCoord, true).sendToClientsInDim(worldObj.provider.dimensionId);
 		Address address = isSource ? wormhole.getDestinationAddress() : wormhole.getSourceAddress();
+		if(broadcast && isSource && address.length() == 8){
+			capacitor.extractEnergy(DIAL_COST_8, false);
+		}
+		// Rehydrated wormholes don't broadcast, but the gate is just as busy.
+		updateGateState();
 		if(broadcast){
-			if(isSource && address.length() == 8){
-				capacitor.extractEnergy(DIAL_COST_8, false);
-			}
 			BusPacketLIP packet = new BusPacketLIP(networkDriver.getInterfaceAddress(), (short)0xFFFF);
 			packet.setMetadata(new LIPMetadata(ModReference.MOD_ID, "Stargate", ""));
 			packet.set(".protocol", "Stargate Protocol");
@@ -189,10 +208,23 @@ public class TileStargate extends BaseTileEntity__OLD_AND_FLAWED implements ITil
 			packet.set("address", address.toString());
 			packet.finish();
 			networkDriver.addPacket(packet);
-			interfaces[0].sendAllPackets();
+			interfaces[0].queueAllPackets();
 		}
 	}
 	
+	@ServerLogic
+	public void onDialError(DialError error){
+		BusPacketLIP packet = new BusPacketLIP(networkDriver.getInterfaceAddress(), (short)0xFFFF);
+		packet.setMetadata(new LIPMetadata(ModReference.MOD_ID, "Stargate", ""));
+		packet.set(".protocol", "Stargate Protocol");
+		packet.set(".target", "ANY");
+		packet.set("action", "dialerror");
+		packet.set("error", error.toString());
+		packet.finish();
+		networkDriver.addPacket(packet);
+		interfaces[0].queueAllPackets();
+	}
+	
 	@ServerLogic
 	public void disconnect(){
 		if(wormhole != null){
@@ -203,6 +235,7 @@ public class TileStargate extends BaseTileEntity__OLD_AND_FLAWED implements ITil
 	@ServerLogic
 	public void onDisconnect(){
 		wormhole = null;
+		updateGateState();
 		PacketWormhole.sendSync(xCoord, yCoord, zCoord, false).sendToClientsInDim(worldObj.provider.dimensionId);
 		BusPacketLIP packet = new BusPacketLIP(networkDriver.getInterfaceAddress(), (short)0xFFFF);
 		packet.setMetadata(new LIPMetadata(ModReference.MOD_ID, "Stargate", ""));
@@ -211,7 +244,7 @@ public class TileStargate extends BaseTileEntity__OLD_AND_FLAWED implements ITil
 		packet.set("action", "disconnecting");
 		packet.finish();
 		networkDriver.addPacket(packet);
-		interfaces[0].sendAllPackets();
+		interfaces[0].queueAllPackets();
 	}
 	
 	// TODO: Implement these, in the future.
@@ -310,12 +343,16 @@ public class TileStargate extends BaseTileEntity__OLD_AND_FLAWED implements ITil
 
 	@Override
 	public int receiveEnergy(ForgeDirection from, int maxReceive, boolean simulate) {
-		return capacitor.receiveEnergy(maxReceive, simulate);
+		int received = capacitor.receiveEnergy(maxReceive, simulate);
+		if(!simulate && received > 0) updateGateState();
+		return received;
 	}
 
 	@Override
 	public int extractEnergy(ForgeDirection from, int maxExtract, boolean simulate) {
-		return capacitor.extractEnergy(maxExtract, simulate);
+		int extracted = capacitor.extractEnergy(maxExtract, simulate);
+		if(!simulate && extracted > 0) updateGateState();
+		return extracted;
 	}
 
 	@Override
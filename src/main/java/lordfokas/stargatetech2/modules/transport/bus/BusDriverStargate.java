@@ -4,8 +4,11 @@ import java.util.LinkedList;
 
 import lordfokas.stargatetech2.api.bus.BusPacket;
 import lordfokas.stargatetech2.api.bus.BusPacketLIP;
+import lordfokas.stargatetech2.api.bus.BusPacketTyped;
 import lordfokas.stargatetech2.api.bus.BusProtocols;
 import lordfokas.stargatetech2.api.bus.IBusDriver;
+import lordfokas.stargatetech2.api.bus.IBusInterface;
+import lordfokas.stargatetech2.api.bus.IBusPacketHandler;
 import lordfokas.stargatetech2.api.stargate.Address;
 import lordfokas.stargatetech2.api.stargate.DialError;
 import lordfokas.stargatetech2.api.stargate.ITileStargateBase.DialMethod;
@@ -13,6 +16,11 @@ import lordfokas.stargatetech2.modules.transport.TileStargate;
 import lordfokas.stargatetech2.modules.transport.stargates.StargateNetwork;
 
 public class BusDriverStargate implements IBusDriver{
+	public static final int FIELD_ACTION = BusPacketTyped.field("action");
+	public static final int FIELD_QUERY = BusPacketTyped.field("query");
+	public static final int FIELD_ADDRESS = BusPacketTyped.field("address");
+	public static final int FIELD_TIMEOUT = BusPacketTyped.field("timeout");
+	
 	private LinkedList<BusPacket> queue = new LinkedList();
 	private TileStargate stargate;
 	
@@ -20,32 +28,69 @@ public class BusDriverStargate implements IBusDriver{
 		this.stargate = stargate;
 	}
 	
+	/**
+	 * Lets the interface give LIP and typed packets straight to the right method.
+	 * 
+	 * @return The same interface, for convenience.
+	 */
+	public IBusInterface registerHandlers(IBusInterface networkInterface){
+		networkInterface.registerHandler(BusProtocols.PROTOCOL_LIP, new IBusPacketHandler(){
+			@Override
+			public void handlePacket(BusPacket packet){
+				handleLIP((BusPacketLIP) packet);
+			}
+		});
+		networkInterface.registerHandler(BusProtocols.PROTOCOL_TYPED, new IBusPacketHandler(){
+			@Override
+			public void handlePacket(BusPacket packet){
+				handleTyped((BusPacketTyped) packet);
+			}
+		});
+		return networkInterface;
+	}
+	
 	@Override
 	public boolean canHandlePacket(short sender, int protocolID, boolean hasLIP) {
-		return protocolID == BusProtocols.PROTOCOL_LIP;
+		return protocolID == BusProtocols.PROTOCOL_LIP || protocolID == BusProtocols.PROTOCOL_TYPED;
 	}
 
 	@Override
 	public void handlePacket(BusPacket packet) {
-		BusPacketLIP lip = packet.getPlainText();
+		if(packet instanceof BusPacketTyped){
+			handleTyped((BusPacketTyped) packet);
+		}else{
+			handleLIP(packet.getPlainText());
+		}
+	}
+	
+	private void handleTyped(BusPacketTyped typed){
+		handlePacket(typed, typed.getString(FIELD_ACTION), typed.getString(FIELD_QUERY), typed.getString(FIELD_ADDRESS), typed.getInt(FIELD_TIMEOUT, 38));
+	}
+	
+	private void handleLIP(BusPacketLIP lip){
 		String action = lip.get("action");
+		int timeout = 38;
+		if("dial".equalsIgnoreCase(action)){
+			try{
+				timeout = Integer.parseInt(lip.get("timeout"));
+			}catch(Exception e){
+				timeout = 38;
+			}
+		}
+		handlePacket(lip, action, lip.get("query"), lip.get("address"), timeout);
+	}
+	
+	private void handlePacket(BusPacket<String> lip, String action, String query, String addr, int timeout){
 		if(action != null){
 			if(action.equalsIgnoreCase("disconnect")){
 				stargate.disconnect();
 				lip.addResponse("Disconnecting Wormhole");
 			}else if(action.equalsIgnoreCase("dial")){
-				String addr = lip.get("address");
 				if(addr != null){
-					int timeout;
-					try{
-						timeout = Integer.parseInt(lip.get("timeout"));
-					}catch(Exception e){
-						timeout = 38;
-					}
 					Address address = StargateNetwork.parse(addr);
 					if(address != null){
 						DialError error = stargate.dial(address, timeout, DialMethod.MANUAL);
-						if(error == DialError.SUCCESSFULLY_DIALED){
+						if(error == DialError.DIALING_IN_PROGRESS || error == DialError.SUCCESSFULLY_DIALED){
 							lip.addResponse(String.format("Dialing %s for %d seconds", address.toString(), timeout));
 						}else{
 							lip.addResponse("Dialing error: " + error);
@@ -65,7 +110,6 @@ public class BusDriverStargate implements IBusDriver{
 			}
 			return;
 		}
-		String query = lip.get("query");
 		if(query != null){
 			if(query.equalsIgnoreCase("address")){
 				lip.addResponse(stargate.getAddress().toString());
@@ -0,0 +1,102 @@
+package lordfokas.stargatetech2.modules.transport.stargates;
+
+import java.util.Random;
+import java.util.Set;
+
+import lordfokas.stargatetech2.api.stargate.Address;
+import lordfokas.stargatetech2.api.stargate.Symbol;
+
+/**
+ * Hands out the free addresses of one dimension prefix.
+ * Every suffix of 5 distinct symbols not used by the prefix gets an index,
+ * and the allocator walks those indices in an order given by an affine
+ * permutation seeded from the world seed, so the sequence of addresses is
+ * reproducible and no index is ever visited twice before the space wraps.
+ * The position in that order is saved with the prefixes, so after a restart
+ * the allocator carries on where it stopped instead of walking past every
+ * address it already handed out.
+ */
+public final class AddressAllocator {
+	private static final int SUFFIX = StargateNetwork.RANDOM_ADDRESS_LENGTH - 3;
+	
+	private final Symbol[] prefix;
+	private final Symbol[] alphabet;
+	private final long size;
+	private final long multiplier;
+	private final long offset;
+	private long cursor;
+	
+	public AddressAllocator(DimensionPrefix dimensionPrefix, long seed, long cursor){
+		prefix = dimensionPrefix.getSymbols();
+		boolean[] used = new boolean[Symbol.values().length];
+		used[Symbol.VOID.ordinal()] = true;
+		for(Symbol s : prefix) used[s.ordinal()] = true;
+		alphabet = new Symbol[used.length - 1 - prefix.length];
+		int a = 0;
+		for(int s = 0; s < used.length; s++){
+			if(!used[s]) alphabet[a++] = Symbol.get(s);
+		}
+		long n = 1;
+		for(int i = 0; i < SUFFIX; i++){
+			n *= alphabet.length - i;
+		}
+		size = n;
+		Random random = new Random(seed ^ (dimensionPrefix.getPackedValue() * 0x5DEECE66DL));
+		long m;
+		do{
+			m = 1 + (long)(random.nextDouble() * (size - 1));
+		}while(gcd(m, size) != 1);
+		multiplier = m;
+		offset = (long)(random.nextDouble() * size);
+		this.cursor = ((cursor % size) + size) % size;
+	}
+	
+	/**
+	 * @return The position of the next index to try, to be saved and given back to the constructor.
+	 */
+	public long getCursor(){
+		return cursor;
+	}
+	
+	/**
+	 * Gives the next address that is not in use.
+	 * Visits each index of the suffix space at most once per call.
+	 * 
+	 * @param used The addresses that already exist in the network.
+	 * @return A free address, or null if the whole prefix is taken.
+	 */
+	public Address next(Set<Address> used){
+		for(long tries = 0; tries < size; tries++){
+			long index = (multiplier * cursor + offset) % size;
+			cursor = (cursor + 1) % size;
+			Address address = decode(index);
+			if(!used.contains(address)){
+				return address;
+			}
+		}
+		return null;
+	}
+	
+	private Address decode(long index){
+		Symbol[] remaining = alphabet.clone();
+		int left = remaining.length;
+		Symbol[] symbols = new Symbol[prefix.length + SUFFIX];
+		System.arraycopy(prefix, 0, symbols, 0, prefix.length);
+		for(int i = prefix.length; i < symbols.length; i++){
+			int digit = (int)(index % left);
+			index /= left;
+			symbols[i] = remaining[digit];
+			remaining[digit] = remaining[--left];
+		}
+		return Address.create(symbols);
+	}
+	
+	private static long gcd(long a, long b){
+		while(b != 0){
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+}
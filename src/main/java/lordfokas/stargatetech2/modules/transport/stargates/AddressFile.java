@@ -0,0 +1,196 @@
+package lordfokas.stargatetech2.modules.transport.stargates;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import lordfokas.stargatetech2.api.stargate.Address;
+import lordfokas.stargatetech2.api.stargate.Symbol;
+import lordfokas.stargatetech2.util.ByteUtil;
+import lordfokas.stargatetech2.util.StargateLogger;
+
+/**
+ * Reads and writes addresses.dat.
+ * <br>
+ * Version 2 layout: a header [magic][version][snapshot generation][mapping count], followed by blocks of up to
+ * {@link #BLOCK_SIZE} mappings, each framed as [count][length][payload][crc32].
+ * Every mapping in a payload is the address length, its symbols packed 6 bits each,
+ * and the dimension and coordinates as ZigZag varints. Version 1 is the same without the generation.
+ * <br>
+ * Files written before the header existed (a plain count followed by int-per-field mappings)
+ * are still read transparently, and get rewritten in the new format on the next snapshot.
+ */
+public final class AddressFile {
+	public static final int MAGIC = 0x53474144; // "SGAD"
+	public static final byte VERSION = 2;
+	public static final int BLOCK_SIZE = 1024;
+	
+	/**
+	 * The mappings read from the file, and the generation of the snapshot they belong to.
+	 */
+	public static final class Contents{
+		public final long generation;
+		public final List<AddressMapping> mappings;
+		
+		private Contents(long generation, List<AddressMapping> mappings){
+			this.generation = generation;
+			this.mappings = mappings;
+		}
+	}
+	
+	private AddressFile(){}
+	
+	public static byte[] write(Collection<AddressMapping> mappings, long generation){
+		ByteArrayOutputStream out = new ByteArrayOutputStream(24 + mappings.size() * 16);
+		ByteBuffer header = ByteBuffer.allocate(17);
+		header.putInt(MAGIC).put(VERSION).putLong(generation).putInt(mappings.size());
+		out.write(header.array(), 0, header.capacity());
+		ByteArrayOutputStream block = new ByteArrayOutputStream();
+		int count = 0;
+		for(AddressMapping mapping : mappings){
+			writeMapping(block, mapping);
+			if(++count == BLOCK_SIZE){
+				writeBlock(out, block, count);
+				count = 0;
+			}
+		}
+		if(count > 0) writeBlock(out, block, count);
+		return out.toByteArray();
+	}
+	
+	private static void writeBlock(ByteArrayOutputStream out, ByteArrayOutputStream block, int count){
+		byte[] payload = block.toByteArray();
+		block.reset();
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		ByteBuffer frame = ByteBuffer.allocate(8);
+		frame.putInt(count).putInt(payload.length);
+		out.write(frame.array(), 0, 8);
+		out.write(payload, 0, payload.length);
+		frame.clear();
+		frame.putInt((int) crc.getValue());
+		out.write(frame.array(), 0, 4);
+	}
+	
+	private static void writeMapping(ByteArrayOutputStream out, AddressMapping mapping){
+		Address address = mapping.getAddress();
+		int length = address.length();
+		out.write(length);
+		int bits = 0, acc = 0;
+		for(int i = 0; i < length; i++){
+			acc = (acc << 6) | address.getSymbol(i).ordinal();
+			bits += 6;
+			while(bits >= 8){
+				bits -= 8;
+				out.write((acc >> bits) & 0xFF);
+			}
+		}
+		if(bits > 0) out.write((acc << (8 - bits)) & 0xFF);
+		ByteUtil.writeVarInt(out, mapping.getDimension());
+		ByteUtil.writeVarInt(out, mapping.getXCoord());
+		ByteUtil.writeVarInt(out, mapping.getYCoord());
+		ByteUtil.writeVarInt(out, mapping.getZCoord());
+	}
+	
+	private static AddressMapping readMapping(ByteBuffer in){
+		int length = in.get() & 0xFF;
+		Symbol[] symbols = new Symbol[length];
+		int bits = 0, acc = 0;
+		for(int i = 0; i < length; i++){
+			while(bits < 6){
+				acc = (acc << 8) | (in.get() & 0xFF);
+				bits += 8;
+			}
+			bits -= 6;
+			symbols[i] = Symbol.get((acc >> bits) & 0x3F);
+		}
+		int d = ByteUtil.readVarInt(in);
+		int x = ByteUtil.readVarInt(in);
+		int y = ByteUtil.readVarInt(in);
+		int z = ByteUtil.readVarInt(in);
+		return new AddressMapping(Address.create(symbols), d, x, y, z);
+	}
+	
+	/**
+	 * Reads the whole file into memory and decodes every mapping in it.
+	 * Blocks that fail their checksum are skipped and reported.
+	 * <br>
+	 * The file isn't memory mapped: a mapping stays open until it's garbage collected,
+	 * and on Windows that keeps the next snapshot from being moved over this file.
+	 */
+	public static Contents read(File file) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try{
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while(buffer.hasRemaining()){
+				if(channel.read(buffer) < 0) throw new IOException("addresses.dat got shorter while it was read");
+			}
+			buffer.flip();
+			if(buffer.remaining() >= 4 && buffer.getInt(0) == MAGIC){
+				return readCompact(buffer);
+			}else{
+				return new Contents(0, readLegacy(buffer));
+			}
+		}finally{
+			raf.close();
+		}
+	}
+	
+	private static Contents readCompact(ByteBuffer buffer) throws IOException{
+		buffer.getInt();
+		byte version = buffer.get();
+		if(version != 1 && version != VERSION) throw new IOException("Unknown addresses.dat version: " + version);
+		long generation = (version == 1) ? 0 : buffer.getLong();
+		int total = buffer.getInt();
+		ArrayList<AddressMapping> mappings = new ArrayList(total);
+		CRC32 crc = new CRC32();
+		while(buffer.remaining() >= 8){
+			int count = buffer.getInt();
+			int length = buffer.getInt();
+			if(length < 0 || length + 4 > buffer.remaining()) throw new IOException("Truncated block in addresses.dat");
+			ByteBuffer payload = buffer.slice();
+			payload.limit(length);
+			buffer.position(buffer.position() + length);
+			byte[] bytes = new byte[length];
+			payload.duplicate().get(bytes);
+			crc.reset();
+			crc.update(bytes);
+			if(buffer.getInt() != (int) crc.getValue()){
+				StargateLogger.error("A block of " + count + " Stargate addresses failed its checksum and was skipped!");
+				continue;
+			}
+			for(int i = 0; i < count; i++){
+				mappings.add(readMapping(payload));
+			}
+		}
+		if(mappings.size() != total){
+			StargateLogger.error("Expected " + total + " Stargate addresses but only " + mappings.size() + " could be read!");
+		}
+		return new Contents(generation, mappings);
+	}
+	
+	private static List<AddressMapping> readLegacy(ByteBuffer buffer){
+		int count = buffer.remaining() >= 4 ? buffer.getInt() : 0;
+		ArrayList<AddressMapping> mappings = new ArrayList(count);
+		for(int i = 0; i < count; i++){
+			Symbol[] symbols = new Symbol[buffer.getInt()];
+			for(int s = 0; s < symbols.length; s++){
+				symbols[s] = Symbol.get(buffer.getInt());
+			}
+			int d = buffer.getInt();
+			int x = buffer.getInt();
+			int y = buffer.getInt();
+			int z = buffer.getInt();
+			mappings.add(new AddressMapping(Address.create(symbols), d, x, y, z));
+		}
+		return mappings;
+	}
+}
@@ -0,0 +1,215 @@
+package lordfokas.stargatetech2.modules.transport.stargates;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import lordfokas.stargatetech2.api.stargate.Address;
+import lordfokas.stargatetech2.api.stargate.Symbol;
+
+/**
+ * Measures network map lookups with the packed hashing of {@link Address} and {@link DimensionPrefix}
+ * against copies of their old hashing (the address length, and a constant for prefixes).
+ * It needs nothing but the JVM, so it runs without Forge:
+ * <br>
+ * <code>java -cp &lt;classes&gt; lordfokas.stargatetech2.modules.transport.stargates.AddressHashBenchmark [gates...]</code>
+ * <br>
+ * Filling a map with the old keys takes quadratic time, since every address lands in one of three
+ * buckets, so the old hashing is only measured up to -Dbench.legacyMax gates (20000 by default).
+ */
+public final class AddressHashBenchmark {
+	private static final int QUERIES = 1 << 16;
+	private static final int ROUNDS = 5;
+	private static long sink = 0;
+	
+	private AddressHashBenchmark(){}
+	
+	public static void main(String[] args){
+		int[] sizes = new int[]{10000, 100000, 1000000};
+		if(args.length > 0){
+			sizes = new int[args.length];
+			for(int i = 0; i < args.length; i++){
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		int legacyMax = Integer.getInteger("bench.legacyMax", 20000).intValue();
+		Random random = new Random(42);
+		for(int size : sizes){
+			ArrayList<Address> addresses = randomAddresses(random, size);
+			ArrayList<DimensionPrefix> prefixes = randomPrefixes(random, Math.max(1, size / 100));
+			System.out.println(size + " gates, " + prefixes.size() + " prefixes:");
+			System.out.println("  addresses.get()            packed " + format(addressLookup(addresses, random, false))
+				+ "   old " + (size <= legacyMax ? format(addressLookup(addresses, random, true)) : "skipped"));
+			System.out.println("  prefixes.get()             packed " + format(prefixLookup(prefixes, random, false))
+				+ "   old " + (prefixes.size() <= legacyMax ? format(prefixLookup(prefixes, random, true)) : "skipped"));
+			System.out.println("  prefixes.containsValue()   packed " + format(prefixScan(prefixes, random, false))
+				+ "   old " + format(prefixScan(prefixes, random, true)));
+		}
+		if(sink == 42) System.out.println();
+	}
+	
+	private static String format(double nanos){
+		return String.format("%10.1f ns/op", nanos);
+	}
+	
+	private static double addressLookup(ArrayList<Address> addresses, Random random, boolean legacy){
+		HashMap<Object, Address> map = new HashMap();
+		for(Address address : addresses){
+			map.put(legacy ? new OldAddress(address) : address, address);
+		}
+		Object[] queries = new Object[QUERIES];
+		for(int i = 0; i < QUERIES; i++){
+			Address address = addresses.get(random.nextInt(addresses.size()));
+			queries[i] = legacy ? new OldAddress(address) : address;
+		}
+		return lookup(map, queries);
+	}
+	
+	private static double prefixLookup(ArrayList<DimensionPrefix> prefixes, Random random, boolean legacy){
+		HashMap<Object, Integer> map = new HashMap();
+		for(int i = 0; i < prefixes.size(); i++){
+			DimensionPrefix prefix = prefixes.get(i);
+			map.put(legacy ? new OldPrefix(prefix) : prefix, Integer.valueOf(i));
+		}
+		Object[] queries = new Object[QUERIES];
+		for(int i = 0; i < QUERIES; i++){
+			DimensionPrefix prefix = prefixes.get(random.nextInt(prefixes.size()));
+			queries[i] = legacy ? new OldPrefix(prefix) : prefix;
+		}
+		return lookup(map, queries);
+	}
+	
+	private static double lookup(HashMap<Object, ?> map, Object[] queries){
+		double best = Double.MAX_VALUE;
+		for(int round = 0; round < ROUNDS; round++){
+			long start = System.nanoTime();
+			for(Object query : queries){
+				if(map.get(query) != null) sink++;
+			}
+			best = Math.min(best, (System.nanoTime() - start) / (double) queries.length);
+		}
+		return best;
+	}
+	
+	/**
+	 * StargateNetwork used to look prefixes up by value in its dimension to prefix map.
+	 * Hashing doesn't matter for that, only how fast equals() is.
+	 */
+	private static double prefixScan(ArrayList<DimensionPrefix> prefixes, Random random, boolean legacy){
+		HashMap<Integer, Object> map = new HashMap();
+		for(int i = 0; i < prefixes.size(); i++){
+			DimensionPrefix prefix = prefixes.get(i);
+			map.put(Integer.valueOf(i), legacy ? new OldPrefix(prefix) : prefix);
+		}
+		int count = Math.max(16, QUERIES / prefixes.size());
+		Object[] queries = new Object[count];
+		for(int i = 0; i < count; i++){
+			DimensionPrefix prefix = prefixes.get(random.nextInt(prefixes.size()));
+			queries[i] = legacy ? new OldPrefix(prefix) : prefix;
+		}
+		double best = Double.MAX_VALUE;
+		for(int round = 0; round < ROUNDS; round++){
+			long start = System.nanoTime();
+			for(Object query : queries){
+				if(map.containsValue(query)) sink++;
+			}
+			best = Math.min(best, (System.nanoTime() - start) / (double) queries.length);
+		}
+		return best;
+	}
+	
+	private static ArrayList<Address> randomAddresses(Random random, int count){
+		ArrayList<Symbol> symbols = new ArrayList();
+		for(int s = 1; s < Symbol.values().length; s++){
+			symbols.add(Symbol.get(s));
+		}
+		HashSet<Address> seen = new HashSet();
+		ArrayList<Address> addresses = new ArrayList(count);
+		while(addresses.size() < count){
+			Collections.shuffle(symbols, random);
+			Symbol[] address = new Symbol[7 + random.nextInt(3)];
+			for(int i = 0; i < address.length; i++){
+				address[i] = symbols.get(i);
+			}
+			Address a = Address.create(address);
+			if(seen.add(a)) addresses.add(a);
+		}
+		return addresses;
+	}
+	
+	private static ArrayList<DimensionPrefix> randomPrefixes(Random random, int count){
+		ArrayList<DimensionPrefix> prefixes = new ArrayList(count);
+		HashSet<DimensionPrefix> seen = new HashSet();
+		int total = 39 * 38 * 37;
+		while(prefixes.size() < Math.min(count, total)){
+			int a = 1 + random.nextInt(39), b = 1 + random.nextInt(39), c = 1 + random.nextInt(39);
+			if(a == b || b == c || a == c) continue;
+			DimensionPrefix prefix = new DimensionPrefix(new Symbol[]{Symbol.get(a), Symbol.get(b), Symbol.get(c)});
+			if(seen.add(prefix)) prefixes.add(prefix);
+		}
+		return prefixes;
+	}
+	
+	/** Address.equals() and hashCode() as they were before addresses were packed. */
+	private static final class OldAddress{
+		private final Symbol[] symbols;
+		
+		private OldAddress(Address address){
+			symbols = new Symbol[address.length()];
+			for(int i = 0; i < symbols.length; i++){
+				symbols[i] = address.getSymbol(i);
+			}
+		}
+		
+		@Override
+		public boolean equals(Object o){
+			if(o instanceof OldAddress){
+				OldAddress a = (OldAddress) o;
+				if(a.symbols.length == symbols.length){
+					for(int i = 0; i < symbols.length; i++){
+						if(symbols[i] != a.symbols[i]){
+							return false;
+						}
+					}
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		@Override
+		public int hashCode(){
+			return symbols.length;
+		}
+	}
+	
+	/** DimensionPrefix.equals() and hashCode() as they were before prefixes were packed. */
+	private static final class OldPrefix{
+		private final Symbol[] symbols;
+		
+		private OldPrefix(DimensionPrefix prefix){
+			symbols = prefix.getSymbols();
+		}
+		
+		@Override
+		public int hashCode(){
+			return 0xDEADBEEF;
+		}
+		
+		@Override
+		public boolean equals(Object o){
+			if(o instanceof OldPrefix){
+				OldPrefix dp = (OldPrefix) o;
+				for(int i = 0; i < symbols.length; i++){
+					if(symbols[i] != dp.symbols[i]){
+						return false;
+					}
+				}
+				return true;
+			}
+			return false;
+		}
+	}
+}
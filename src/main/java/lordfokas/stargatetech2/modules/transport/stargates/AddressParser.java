@@ -0,0 +1,97 @@
+package lordfokas.stargatetech2.modules.transport.stargates;
+
+import lordfokas.stargatetech2.api.stargate.Address;
+import lordfokas.stargatetech2.api.stargate.Symbol;
+
+/**
+ * Parses addresses written the way {@link Address#toString()} prints them:
+ * 3 parts separated by single spaces, each part being up to 3 symbol names, in any case.
+ * <br>
+ * Symbol names are matched by walking a trie built once from {@link Symbol}, one
+ * character at a time, so parsing creates no intermediate strings. No symbol name is
+ * a prefix of another, so the first complete name found is always the right one.
+ */
+public final class AddressParser {
+	public static final int ERROR_PART_COUNT = -1;
+	public static final int ERROR_EMPTY_PART = -2;
+	public static final int ERROR_PART_TOO_LONG = -3;
+	public static final int ERROR_UNKNOWN_SYMBOL = -4;
+	
+	private static final Symbol[] SYMBOLS = Symbol.values();
+	private static final int ROOT = 0;
+	private static final int[][] next;
+	private static final int[] symbol;
+	
+	static{
+		int nodes = 1;
+		for(int s = 1; s < SYMBOLS.length; s++){
+			nodes += SYMBOLS[s].toString().length();
+		}
+		next = new int[nodes][26];
+		symbol = new int[nodes];
+		int used = 1;
+		for(int s = 1; s < SYMBOLS.length; s++){
+			String name = SYMBOLS[s].toString().toLowerCase();
+			int node = ROOT;
+			for(int i = 0; i < name.length(); i++){
+				int c = name.charAt(i) - 'a';
+				if(next[node][c] == ROOT){
+					next[node][c] = used++;
+				}
+				node = next[node][c];
+			}
+			symbol[node] = s;
+		}
+	}
+	
+	private AddressParser(){}
+	
+	/**
+	 * @return The parsed address, or null if the input isn't written like an address.
+	 * Addresses with the wrong length or repeated symbols are {@link Address#ERROR}, as with {@link Address#create(Symbol[])}.
+	 */
+	public static Address parse(CharSequence input){
+		if(input == null) return null;
+		Symbol[] buffer = new Symbol[9];
+		int count = parse(input, buffer);
+		if(count < 0) return null;
+		Symbol[] symbols = new Symbol[count];
+		System.arraycopy(buffer, 0, symbols, 0, count);
+		return Address.create(symbols);
+	}
+	
+	/**
+	 * Parses the symbols of an address into a buffer, without allocating anything.
+	 *
+	 * @param output Where the symbols are written. Must have room for 9 symbols.
+	 * @return How many symbols were parsed, or one of the negative ERROR_ codes.
+	 */
+	public static int parse(CharSequence input, Symbol[] output){
+		int count = 0, parts = 0, inPart = 0, node = ROOT;
+		int length = input.length();
+		for(int i = 0; i < length; i++){
+			char c = input.charAt(i);
+			if(c == ' '){
+				if(node != ROOT) return ERROR_UNKNOWN_SYMBOL;
+				if(inPart == 0) return ERROR_EMPTY_PART;
+				if(++parts > 2) return ERROR_PART_COUNT;
+				inPart = 0;
+				continue;
+			}
+			if(c >= 'A' && c <= 'Z') c += 'a' - 'A';
+			if(c < 'a' || c > 'z') return ERROR_UNKNOWN_SYMBOL;
+			node = next[node][c - 'a'];
+			if(node == ROOT) return ERROR_UNKNOWN_SYMBOL;
+			if(symbol[node] != 0){
+				if(inPart == 3) return ERROR_PART_TOO_LONG;
+				output[count++] = SYMBOLS[symbol[node]];
+				inPart++;
+				node = ROOT;
+			}
+		}
+		if(node != ROOT) return ERROR_UNKNOWN_SYMBOL;
+		if(inPart == 0) return ERROR_EMPTY_PART;
+		if(parts != 2) return ERROR_PART_COUNT;
+		return count;
+	}
+}
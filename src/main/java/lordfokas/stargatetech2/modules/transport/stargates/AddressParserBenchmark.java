@@ -0,0 +1,146 @@
+package lordfokas.stargatetech2.modules.transport.stargates;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Random;
+
+import lordfokas.stargatetech2.api.stargate.Address;
+import lordfokas.stargatetech2.api.stargate.Symbol;
+
+/**
+ * Measures {@link AddressParser} against a copy of the parser StargateNetwork used before it,
+ * on valid addresses and on input that fails to parse. Runs without Forge:
+ * <br>
+ * <code>java -cp &lt;classes&gt; lordfokas.stargatetech2.modules.transport.stargates.AddressParserBenchmark</code>
+ * <br>
+ * Where the JVM can count allocated bytes per thread, the bytes allocated per parse are shown too.
+ */
+public final class AddressParserBenchmark {
+	private static final int INPUTS = 4096;
+	private static final int ROUNDS = 10;
+	private static final int PASSES = 50;
+	private static long sink = 0;
+	
+	private interface Parser{
+		void parse(String input);
+	}
+	
+	private AddressParserBenchmark(){}
+	
+	public static void main(String[] args){
+		Random random = new Random(42);
+		String[] valid = new String[INPUTS];
+		String[] invalid = new String[INPUTS];
+		for(int i = 0; i < INPUTS; i++){
+			String address = randomAddress(random).toString();
+			valid[i] = address;
+			switch(i % 3){
+				case 0: invalid[i] = address.replace(' ', '-'); break;
+				case 1: invalid[i] = address.substring(0, address.lastIndexOf(' ')); break;
+				default: invalid[i] = address + "x"; break;
+			}
+		}
+		Parser legacy = new Parser(){
+			@Override
+			public void parse(String input){
+				if(legacyParse(input) != null) sink++;
+			}
+		};
+		Parser trie = new Parser(){
+			@Override
+			public void parse(String input){
+				if(AddressParser.parse(input) != null) sink++;
+			}
+		};
+		final Symbol[] buffer = new Symbol[9];
+		Parser buffered = new Parser(){
+			@Override
+			public void parse(String input){
+				sink += AddressParser.parse(input, buffer);
+			}
+		};
+		System.out.println("valid addresses:");
+		report("  old parse(String)                ", legacy, valid);
+		report("  AddressParser.parse(CharSequence)", trie, valid);
+		report("  AddressParser.parse(.., Symbol[])", buffered, valid);
+		System.out.println("invalid input:");
+		report("  old parse(String)                ", legacy, invalid);
+		report("  AddressParser.parse(CharSequence)", trie, invalid);
+		report("  AddressParser.parse(.., Symbol[])", buffered, invalid);
+		if(sink == 42) System.out.println();
+	}
+	
+	private static void report(String name, Parser parser, String[] inputs){
+		double best = Double.MAX_VALUE;
+		long bytes = -1;
+		for(int round = 0; round < ROUNDS; round++){
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			for(int pass = 0; pass < PASSES; pass++){
+				for(String input : inputs){
+					parser.parse(input);
+				}
+			}
+			long time = System.nanoTime() - start;
+			if(allocated >= 0) bytes = allocatedBytes() - allocated;
+			best = Math.min(best, time / (double)(PASSES * inputs.length));
+		}
+		String alloc = bytes < 0 ? "" : String.format("  %6.1f B/op", bytes / (double)(PASSES * inputs.length));
+		System.out.println(name + String.format(" %8.1f ns/op", best) + alloc);
+	}
+	
+	private static long allocatedBytes(){
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean){
+			return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+	
+	private static Address randomAddress(Random random){
+		ArrayList<Symbol> symbols = new ArrayList();
+		for(int s = 1; s < Symbol.values().length; s++){
+			symbols.add(Symbol.get(s));
+		}
+		Collections.shuffle(symbols, random);
+		return Address.create(symbols.subList(0, 9).toArray(new Symbol[9]));
+	}
+	
+	/**
+	 * StargateNetwork.parse as it was before AddressParser.
+	 */
+	private static Address legacyParse(String address){
+		try{
+			String[] parts = address.toLowerCase().split(" ");
+			LinkedList<Symbol> symbols = new LinkedList();
+			if(parts.length != 3) throw new Exception("Address too short.");
+			for(String part : parts){
+				for(int p = 0; p < 3; p++){
+					for(int s = 1; s < Symbol.values().length; s++){
+						Symbol sym = Symbol.get(s);
+						String name = sym.toString().toLowerCase();
+						if(part.contentEquals(name)){
+							symbols.addLast(sym);
+							p = 5;
+							break;
+						}else if(part.startsWith(name)){
+							symbols.addLast(sym);
+							part = part.substring(name.length());
+							break;
+						}
+					}
+				}
+			}
+			Symbol[] sym = new Symbol[symbols.size()];
+			for(int i = 0; i < symbols.size(); i++){
+				sym[i] = symbols.get(i);
+			}
+			return Address.create(sym);
+		}catch(Exception e){
+			return null;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package lordfokas.stargatetech2.modules.transport.stargates;
+
+import lordfokas.stargatetech2.api.stargate.Address;
+import lordfokas.stargatetech2.api.stargate.DialError;
+import lordfokas.stargatetech2.api.stargate.DialEvent;
+import lordfokas.stargatetech2.modules.transport.TileStargate;
+import lordfokas.stargatetech2.util.ChunkLoader;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.MinecraftForge;
+
+/**
+ * A dialing sequence in progress.
+ * <br>
+ * Dialing is split into stages that each do a small amount of work per step, so the
+ * Stargate Network can spread them over as many ticks as needed instead of stalling
+ * the server while a destination world is created or its chunks are generated.
+ * Chunks that already exist on disk are read by Forge's asynchronous chunk I/O.
+ */
+final class DialTask {
+	private enum Stage{
+		PREFIX_LOOKUP,
+		WORLD_LOAD,
+		CHUNK_WARMUP,
+		VALIDATION,
+		CONNECT,
+		DONE
+	}
+	
+	private final Address source, destination;
+	private final int timeout;
+	private Stage stage = Stage.PREFIX_LOOKUP;
+	private AddressMapping srcmap, dstmap;
+	private WorldServer srcworld, dstworld;
+	private TileStargate src, dst;
+	private long srcChunks = -1, dstChunks = -1;
+	private int[] chunks; // [world, x, z] triples; world 0 is the source and 1 the destination.
+	private int nextChunk = 0;
+	private int loadingChunks = 0;
+	
+	DialTask(Address source, Address destination, int timeout){
+		this.source = source;
+		this.destination = destination;
+		this.timeout = timeout;
+	}
+	
+	Address getSource(){
+		return source;
+	}
+	
+	boolean isDone(){
+		return stage == Stage.DONE;
+	}
+	
+	/**
+	 * Runs steps until the deadline passes, the dial finishes, or it has to wait for chunks.
+	 */
+	void tick(long deadline){
+		while(!isDone() && System.nanoTime() < deadline){
+			if(!step()) return;
+		}
+	}
+	
+	/**
+	 * @return false if this task is waiting on something and cannot progress any further this tick.
+	 */
+	private boolean step(){
+		switch(stage){
+			case PREFIX_LOOKUP: return lookup();
+			case WORLD_LOAD: return loadWorlds();
+			case CHUNK_WARMUP: return warmUp();
+			case VALIDATION: return validate();
+			case CONNECT: return connect();
+			default: return false;
+		}
+	}
+	
+	private boolean lookup(){
+		StargateNetwork network = StargateNetwork.instance();
+		srcmap = network.getAddressMapping(source);
+		dstmap = network.getAddressMapping(destination);
+		if(srcmap == null) return fail(DialError.SOURCE_ADDRESS_NOT_FOUND);
+		stage = Stage.WORLD_LOAD;
+		return true;
+	}
+	
+	// Every world operation here can be expensive, so each one gets a step of its own.
+	private boolean loadWorlds(){
+		if(dstmap == null){
+			StargateNetwork network = StargateNetwork.instance();
+			network.dinamicallyLoadWorlds(dstmap, srcmap, destination);
+			dstmap = network.getAddressMapping(destination);
+			if(dstmap == null) return fail(DialError.TARGET_ADDRESS_NOT_FOUND);
+		}else if(srcworld == null){
+			srcworld = MinecraftServer.getServer().worldServerForDimension(srcmap.getDimension());
+			if(srcworld == null) return fail(DialError.SOURCE_WORLD_NOT_FOUND);
+		}else{
+			dstworld = MinecraftServer.getServer().worldServerForDimension(dstmap.getDimension());
+			if(dstworld == null) return fail(DialError.TARGET_WORLD_NOT_FOUND);
+			if(dstworld == srcworld) return fail(DialError.CANNOT_DIAL_SAME_WORLD);
+			stage = Stage.CHUNK_WARMUP;
+		}
+		return true;
+	}
+	
+	private boolean warmUp(){
+		if(chunks == null){
+			// Forcing first keeps chunks that finish loading early from being unloaded while we wait on the rest.
+			srcChunks = ChunkLoader.load9Chunks(srcworld, srcmap.getXCoord() >> 4, srcmap.getZCoord() >> 4);
+			if(srcChunks < 0) return fail(DialError.FAILED_CHUNKLOADING_SOURCE);
+			dstChunks = ChunkLoader.load9Chunks(dstworld, dstmap.getXCoord() >> 4, dstmap.getZCoord() >> 4);
+			if(dstChunks < 0) return fail(DialError.FAILED_CHUNKLOADING_TARGET);
+			chunks = new int[18 * 3];
+			int c = 0;
+			for(int w = 0; w < 2; w++){
+				AddressMapping map = (w == 0) ? srcmap : dstmap;
+				for(int i = -1; i < 2; i++){
+					for(int j = -1; j < 2; j++){
+						chunks[c++] = w;
+						chunks[c++] = (map.getXCoord() >> 4) + i;
+						chunks[c++] = (map.getZCoord() >> 4) + j;
+					}
+				}
+			}
+			return true;
+		}
+		while(nextChunk < chunks.length){
+			WorldServer world = chunks[nextChunk] == 0 ? srcworld : dstworld;
+			int x = chunks[nextChunk + 1];
+			int z = chunks[nextChunk + 2];
+			nextChunk += 3;
+			if(world.theChunkProviderServer.chunkExists(x, z)) continue;
+			loadingChunks++;
+			// Chunks on disk are read asynchronously; missing chunks are generated right away.
+			world.theChunkProviderServer.loadChunk(x, z, new Runnable(){
+				@Override
+				public void run(){
+					loadingChunks--;
+				}
+			});
+			return true;
+		}
+		if(loadingChunks > 0) return false;
+		stage = Stage.VALIDATION;
+		return true;
+	}
+	
+	private boolean validate(){
+		TileEntity srcte = srcworld.getTileEntity(srcmap.getXCoord(), srcmap.getYCoord(), srcmap.getZCoord());
+		TileEntity dstte = dstworld.getTileEntity(dstmap.getXCoord(), dstmap.getYCoord(), dstmap.getZCoord());
+		if(!(srcte instanceof TileStargate)) return fail(DialError.SOURCE_GATE_NOT_FOUND);
+		if(!(dstte instanceof TileStargate)) return fail(DialError.TARGET_GATE_NOT_FOUND);
+		src = (TileStargate) srcte;
+		dst = (TileStargate) dstte;
+		stage = Stage.CONNECT;
+		return true;
+	}
+	
+	private boolean connect(){
+		if(src.isInvalid()) return fail(DialError.SOURCE_GATE_NOT_FOUND);
+		if(dst.isInvalid()) return fail(DialError.TARGET_GATE_NOT_FOUND);
+		if(dst.hasActiveWormhole()) return fail(DialError.TARGET_GATE_BUSY);
+		if(!src.canDial(8)) return fail(DialError.NOT_ENOUGH_POWER);
+		StargateNetwork.instance().addWormhole(new Wormhole(src, dst, srcChunks, dstChunks, timeout));
+		stage = Stage.DONE;
+		MinecraftForge.EVENT_BUS.post(new DialEvent.Success(source, destination, timeout));
+		return false;
+	}
+	
+	private boolean fail(DialError error){
+		ChunkLoader.release(srcChunks);
+		ChunkLoader.release(dstChunks);
+		stage = Stage.DONE;
+		MinecraftForge.EVENT_BUS.post(new DialEvent.Error(source, destination, error));
+		if(src == null && srcworld != null && srcworld.theChunkProviderServer.chunkExists(srcmap.getXCoord() >> 4, srcmap.getZCoord() >> 4)){
+			TileEntity te = srcworld.getTileEntity(srcmap.getXCoord(), srcmap.getYCoord(), srcmap.getZCoord());
+			if(te instanceof TileStargate) src = (TileStargate) te;
+		}
+		if(src != null && !src.isInvalid()){
+			src.onDialError(error);
+		}
+		return false;
+	}
+	
+	/**
+	 * Abandons this dial without firing any events, releasing whatever it was holding.
+	 */
+	void cancel(){
+		ChunkLoader.release(srcChunks);
+		ChunkLoader.release(dstChunks);
+		stage = Stage.DONE;
+	}
+}
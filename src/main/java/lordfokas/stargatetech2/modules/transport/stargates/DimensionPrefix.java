@@ -1,50 +1,36 @@
 package lordfokas.stargatetech2.modules.transport.stargates;
 
-import java.util.Random;
-
 import lordfokas.stargatetech2.api.stargate.Symbol;
 
-public class DimensionPrefix {
-	private Symbol[] symbols;
-	
-	public static DimensionPrefix generateRandom(){
-		Random random = new Random();
-		boolean[] used = new boolean[40];
-		Symbol[] symbols = new Symbol[3];
-		for(int i = 0; i < symbols.length; i++){
-			int s;
-			do{
-				s = random.nextInt(39) + 1;
-			}while(used[s]);
-			used[s] = true;
-			symbols[i] = Symbol.values()[s];
-		}
-		return new DimensionPrefix(symbols);
-	}
+public final class DimensionPrefix {
+	private final Symbol[] symbols;
+	private final int packed;
 	
 	public DimensionPrefix(Symbol[] symbols){
-		this.symbols = symbols;
+		this.symbols = symbols.clone();
+		this.packed = (symbols[0].ordinal() << 12) | (symbols[1].ordinal() << 6) | symbols[2].ordinal();
 	}
 	
 	public Symbol[] getSymbols(){
-		return symbols;
+		return symbols.clone();
+	}
+	
+	/**
+	 * @return The three symbol ordinals packed 6 bits each, unique for every prefix.
+	 */
+	public int getPackedValue(){
+		return packed;
 	}
 	
 	@Override
 	public int hashCode(){
-		return 0xDEADBEEF;
+		return packed * 0x9E3779B9;
 	}
 	
 	@Override
 	public boolean equals(Object o){
 		if(o instanceof DimensionPrefix){
-			DimensionPrefix dp = (DimensionPrefix) o;
-			for(int i = 0; i < symbols.length; i++){
-				if(symbols[i] != dp.symbols[i]){
-					return false;
-				}
-			}
-			return true;
+			return ((DimensionPrefix) o).packed == packed;
 		}
 		return false;
 	}
@@ -0,0 +1,236 @@
+package lordfokas.stargatetech2.modules.transport.stargates;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+/**
+ * Per-dimension spatial index over the Stargate Network's AddressMappings.
+ * Exact positions are kept in a hash map, and every gate is also bucketed
+ * into a coarse grid of square cells so proximity queries only visit
+ * the cells that can possibly contain a match.
+ */
+public final class GateIndex {
+	private static final int CELL_SHIFT = 8; // 256x256 block cells
+	
+	private final HashMap<Integer, Dimension> dimensions = new HashMap();
+	
+	private static final class Dimension{
+		private final HashMap<Long, AddressMapping> positions = new HashMap();
+		private final HashMap<Long, ArrayList<AddressMapping>> cells = new HashMap();
+		private int minCX, maxCX, minCZ, maxCZ;
+		
+		private boolean isEmpty(){
+			return positions.isEmpty();
+		}
+	}
+	
+	public void add(AddressMapping mapping){
+		Integer key = Integer.valueOf(mapping.getDimension());
+		Dimension dim = dimensions.get(key);
+		if(dim == null){
+			dim = new Dimension();
+			dimensions.put(key, dim);
+		}
+		AddressMapping old = dim.positions.put(pack(mapping.getXCoord(), mapping.getYCoord(), mapping.getZCoord()), mapping);
+		if(old != null) removeFromCell(dim, old);
+		int cx = mapping.getXCoord() >> CELL_SHIFT;
+		int cz = mapping.getZCoord() >> CELL_SHIFT;
+		if(dim.cells.isEmpty()){
+			dim.minCX = dim.maxCX = cx;
+			dim.minCZ = dim.maxCZ = cz;
+		}else{
+			dim.minCX = Math.min(dim.minCX, cx);
+			dim.maxCX = Math.max(dim.maxCX, cx);
+			dim.minCZ = Math.min(dim.minCZ, cz);
+			dim.maxCZ = Math.max(dim.maxCZ, cz);
+		}
+		Long cell = cell(cx, cz);
+		ArrayList<AddressMapping> bucket = dim.cells.get(cell);
+		if(bucket == null){
+			bucket = new ArrayList();
+			dim.cells.put(cell, bucket);
+		}
+		bucket.add(mapping);
+	}
+	
+	public void remove(AddressMapping mapping){
+		Integer key = Integer.valueOf(mapping.getDimension());
+		Dimension dim = dimensions.get(key);
+		if(dim == null) return;
+		Long pos = pack(mapping.getXCoord(), mapping.getYCoord(), mapping.getZCoord());
+		if(dim.positions.get(pos) != mapping) return;
+		dim.positions.remove(pos);
+		removeFromCell(dim, mapping);
+		if(dim.isEmpty()) dimensions.remove(key);
+	}
+	
+	private void removeFromCell(Dimension dim, AddressMapping mapping){
+		Long cell = cell(mapping.getXCoord() >> CELL_SHIFT, mapping.getZCoord() >> CELL_SHIFT);
+		ArrayList<AddressMapping> bucket = dim.cells.get(cell);
+		if(bucket == null) return;
+		bucket.remove(mapping);
+		if(bucket.isEmpty()) dim.cells.remove(cell);
+	}
+	
+	public void clear(){
+		dimensions.clear();
+	}
+	
+	/**
+	 * @return The mapping at this exact location, or null if there is none.
+	 */
+	public AddressMapping get(int d, int x, int y, int z){
+		Dimension dim = dimensions.get(Integer.valueOf(d));
+		if(dim == null) return null;
+		return dim.positions.get(pack(x, y, z));
+	}
+	
+	/**
+	 * @return Whether there is any gate in this dimension closer than sqrt(distSq) to the given location.
+	 */
+	public boolean anyWithin(int d, int x, int y, int z, int distSq){
+		Dimension dim = dimensions.get(Integer.valueOf(d));
+		if(dim == null) return false;
+		int r = (int) Math.ceil(Math.sqrt(distSq));
+		int cx0 = Math.max((x - r) >> CELL_SHIFT, dim.minCX), cx1 = Math.min((x + r) >> CELL_SHIFT, dim.maxCX);
+		int cz0 = Math.max((z - r) >> CELL_SHIFT, dim.minCZ), cz1 = Math.min((z + r) >> CELL_SHIFT, dim.maxCZ);
+		for(int cx = cx0; cx <= cx1; cx++){
+			for(int cz = cz0; cz <= cz1; cz++){
+				ArrayList<AddressMapping> bucket = dim.cells.get(cell(cx, cz));
+				if(bucket == null) continue;
+				for(AddressMapping map : bucket){
+					if(distSq(map, x, y, z) < distSq){
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Adds every gate in this dimension inside the given box (inclusive) to the output.
+	 * Only the cells overlapping the box are visited, or, when the box spans more cells
+	 * than are occupied, only the occupied cells inside it.
+	 */
+	public void collectWithin(int d, int minX, int minY, int minZ, int maxX, int maxY, int maxZ, Collection<AddressMapping> output){
+		Dimension dim = dimensions.get(Integer.valueOf(d));
+		if(dim == null) return;
+		int cx0 = Math.max(minX >> CELL_SHIFT, dim.minCX), cx1 = Math.min(maxX >> CELL_SHIFT, dim.maxCX);
+		int cz0 = Math.max(minZ >> CELL_SHIFT, dim.minCZ), cz1 = Math.min(maxZ >> CELL_SHIFT, dim.maxCZ);
+		if(cx0 > cx1 || cz0 > cz1) return;
+		if((cx1 - cx0 + 1L) * (cz1 - cz0 + 1L) > dim.cells.size()){
+			for(Entry<Long, ArrayList<AddressMapping>> e : dim.cells.entrySet()){
+				long key = e.getKey().longValue();
+				int cx = (int)(key >> 32), cz = (int)key;
+				if(cx >= cx0 && cx <= cx1 && cz >= cz0 && cz <= cz1){
+					collect(e.getValue(), minX, minY, minZ, maxX, maxY, maxZ, output);
+				}
+			}
+			return;
+		}
+		for(int cx = cx0; cx <= cx1; cx++){
+			for(int cz = cz0; cz <= cz1; cz++){
+				ArrayList<AddressMapping> bucket = dim.cells.get(cell(cx, cz));
+				if(bucket != null){
+					collect(bucket, minX, minY, minZ, maxX, maxY, maxZ, output);
+				}
+			}
+		}
+	}
+	
+	private static void collect(ArrayList<AddressMapping> bucket, int minX, int minY, int minZ, int maxX, int maxY, int maxZ, Collection<AddressMapping> output){
+		for(AddressMapping map : bucket){
+			int x = map.getXCoord(), y = map.getYCoord(), z = map.getZCoord();
+			if(x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ){
+				output.add(map);
+			}
+		}
+	}
+	
+	/**
+	 * Finds the nearest gate by walking rings of cells outwards from the
+	 * query location, stopping as soon as no unvisited cell can hold a closer gate.
+	 * When the rings grow larger than the number of occupied cells left to visit,
+	 * the remaining occupied cells are checked directly instead.
+	 *
+	 * @param maxDistSq The maximum squared distance to accept, or a negative number for no limit.
+	 * @return The nearest mapping, or null if none was found.
+	 */
+	public AddressMapping nearest(int d, int x, int y, int z, long maxDistSq){
+		Dimension dim = dimensions.get(Integer.valueOf(d));
+		if(dim == null) return null;
+		int qx = x >> CELL_SHIFT;
+		int qz = z >> CELL_SHIFT;
+		int maxRing = Math.max(Math.max(Math.abs(qx - dim.minCX), Math.abs(qx - dim.maxCX)), Math.max(Math.abs(qz - dim.minCZ), Math.abs(qz - dim.maxCZ)));
+		int visited = 0;
+		Nearest result = new Nearest(maxDistSq);
+		for(int ring = 0; ring <= maxRing; ring++){
+			if(!result.canBeat(ring)) break;
+			if(8L * ring > dim.cells.size() - visited){
+				for(Entry<Long, ArrayList<AddressMapping>> e : dim.cells.entrySet()){
+					long key = e.getKey().longValue();
+					int cring = Math.max(Math.abs((int)(key >> 32) - qx), Math.abs((int)key - qz));
+					if(cring >= ring && result.canBeat(cring)){
+						result.offer(e.getValue(), x, y, z);
+					}
+				}
+				break;
+			}
+			for(int cx = qx - ring; cx <= qx + ring; cx++){
+				boolean edge = (cx == qx - ring || cx == qx + ring);
+				for(int cz = qz - ring; cz <= qz + ring; cz += (edge ? 1 : 2 * ring)){
+					ArrayList<AddressMapping> bucket = dim.cells.get(cell(cx, cz));
+					if(bucket != null){
+						result.offer(bucket, x, y, z);
+						visited++;
+					}
+				}
+			}
+		}
+		return result.mapping;
+	}
+	
+	private static final class Nearest{
+		private long best;
+		private AddressMapping mapping;
+		
+		private Nearest(long maxDistSq){
+			best = maxDistSq;
+		}
+		
+		// every cell in a ring is at least (ring - 1) full cells away horizontally.
+		private boolean canBeat(int ring){
+			if(best < 0 || ring == 0) return true;
+			long gap = ((long)(ring - 1)) << CELL_SHIFT;
+			return gap * gap <= best;
+		}
+		
+		private void offer(ArrayList<AddressMapping> bucket, int x, int y, int z){
+			for(AddressMapping map : bucket){
+				long dst = distSq(map, x, y, z);
+				if(dst < best || best < 0){
+					best = dst;
+					mapping = map;
+				}
+			}
+		}
+	}
+	
+	private static long distSq(AddressMapping map, int x, int y, int z){
+		long dx = x - map.getXCoord();
+		long dy = y - map.getYCoord();
+		long dz = z - map.getZCoord();
+		return dx*dx + dy*dy + dz*dz;
+	}
+	
+	private static Long cell(int cx, int cz){
+		return Long.valueOf((((long)cx) << 32) | (cz & 0xFFFFFFFFL));
+	}
+	
+	private static Long pack(int x, int y, int z){
+		return Long.valueOf((((long)x & 0x3FFFFFFL) << 38) | (((long)z & 0x3FFFFFFL) << 12) | ((long)y & 0xFFFL));
+	}
+}
@@ -0,0 +1,63 @@
+package lordfokas.stargatetech2.modules.transport.stargates;
+
+import java.util.HashMap;
+
+import lordfokas.stargatetech2.api.stargate.Address;
+import lordfokas.stargatetech2.api.stargate.DialError;
+
+/**
+ * Server side record of the last known state of every loaded Stargate, kept up to date
+ * by the Stargates themselves. It lets the Stargate Network turn down dials that are
+ * certain to fail without loading any of the chunks around either gate.
+ * <br>
+ * Gates that haven't been loaded since the server started have no state here,
+ * and dials involving them are always given a chance.
+ */
+public final class GateStateRegistry {
+	private static final GateStateRegistry INSTANCE = new GateStateRegistry();
+	
+	private final HashMap<Address, GateState> states = new HashMap();
+	
+	private static final class GateState{
+		private boolean busy;
+		private int energy;
+	}
+	
+	public static GateStateRegistry instance(){
+		return INSTANCE;
+	}
+	
+	private GateStateRegistry(){}
+	
+	public void update(Address address, boolean busy, int energy){
+		if(address == null) return;
+		GateState state = states.get(address);
+		if(state == null){
+			state = new GateState();
+			states.put(address, state);
+		}
+		state.busy = busy;
+		state.energy = energy;
+	}
+	
+	public void remove(Address address){
+		if(address != null) states.remove(address);
+	}
+	
+	public void clear(){
+		states.clear();
+	}
+	
+	/**
+	 * @param cost The energy the source gate needs to have stored to open this wormhole.
+	 * @return The reason the dial would fail, or null if it might succeed.
+	 */
+	public DialError check(Address source, Address destination, int cost){
+		GateState src = states.get(source);
+		GateState dst = states.get(destination);
+		if(src != null && src.busy) return DialError.SOURCE_GATE_BUSY;
+		if(dst != null && dst.busy) return DialError.TARGET_GATE_BUSY;
+		if(src != null && src.energy < cost) return DialError.NOT_ENOUGH_POWER;
+		return null;
+	}
+}
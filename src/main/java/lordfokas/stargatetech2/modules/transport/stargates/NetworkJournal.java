@@ -0,0 +1,348 @@
+package lordfokas.stargatetech2.modules.transport.stargates;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import lordfokas.stargatetech2.api.stargate.Address;
+import lordfokas.stargatetech2.api.stargate.Symbol;
+import lordfokas.stargatetech2.util.StargateLogger;
+
+/**
+ * Append-only log of the changes made to the Stargate Network since the last snapshot.
+ * Changes are buffered in memory as they happen on the server thread and appended to the
+ * journal file on save, so saving costs O(changes) instead of rewriting every data file.
+ * Each record is framed as [type][length][payload][crc32] so that a record torn by a crash
+ * is detected and dropped on replay instead of corrupting the network.
+ * <br>
+ * Taking a snapshot appends a marker with the snapshot's generation, and the data files are
+ * stamped with the generation they were written in. The journal is only cut back to that
+ * marker once every data file was replaced, so after a crash in between, each file is
+ * brought up to date with just the records that came after its own snapshot.
+ */
+public final class NetworkJournal {
+	private static final byte ADDRESS_ADD	= 1;
+	private static final byte ADDRESS_FREE	= 2;
+	private static final byte PREFIX		= 3;
+	private static final byte WORMHOLES		= 4;
+	private static final byte CURSOR		= 5;
+	private static final byte SNAPSHOT		= 6;
+	
+	private final File file;
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private final DataOutputStream recordData = new DataOutputStream(record);
+	private int pendingRecords = 0;
+	private int journalRecords = 0;
+	private int lastWormholeCount = 0;
+	
+	public NetworkJournal(File file){
+		this.file = file;
+	}
+	
+	/**
+	 * @return How many records are in the journal file, not counting the ones still pending.
+	 */
+	public int getRecordCount(){
+		return journalRecords;
+	}
+	
+	public boolean hasPending(){
+		return pendingRecords > 0;
+	}
+	
+	public void addressAdded(AddressMapping mapping){
+		try{
+			mapping.writeToStream(recordData);
+			commit(ADDRESS_ADD);
+		}catch(IOException e){
+			discard(e);
+		}
+	}
+	
+	public void addressFreed(Address address){
+		try{
+			writeAddress(recordData, address);
+			commit(ADDRESS_FREE);
+		}catch(IOException e){
+			discard(e);
+		}
+	}
+	
+	public void prefixSet(int dimension, DimensionPrefix prefix){
+		try{
+			recordData.writeInt(dimension);
+			for(Symbol s : prefix.getSymbols()){
+				recordData.writeByte(s.ordinal());
+			}
+			commit(PREFIX);
+		}catch(IOException e){
+			discard(e);
+		}
+	}
+	
+	public void cursorMoved(DimensionPrefix prefix, long cursor){
+		try{
+			for(Symbol s : prefix.getSymbols()){
+				recordData.writeByte(s.ordinal());
+			}
+			recordData.writeLong(cursor);
+			commit(CURSOR);
+		}catch(IOException e){
+			discard(e);
+		}
+	}
+	
+	/**
+	 * Records the full state of the active wormholes, since their countdowns change every tick.
+	 * Nothing is recorded when there were and still are no wormholes.
+	 */
+	public void wormholes(List<Wormhole> wormholes){
+		if(wormholes.isEmpty() && lastWormholeCount == 0) return;
+		try{
+			recordData.writeInt(wormholes.size());
+			for(Wormhole wormhole : wormholes){
+				wormhole.writeToStream(recordData);
+			}
+			commit(WORMHOLES);
+			lastWormholeCount = wormholes.size();
+		}catch(Exception e){
+			discard(e);
+		}
+	}
+	
+	private void commit(byte type) throws IOException{
+		byte[] payload = record.toByteArray();
+		record.reset();
+		pending.write(frame(type, payload));
+		pendingRecords++;
+	}
+	
+	private static byte[] frame(byte type, byte[] payload) throws IOException{
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 9);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(type);
+		out.writeInt(payload.length);
+		out.write(payload);
+		out.writeInt((int) crc.getValue());
+		return bytes.toByteArray();
+	}
+	
+	private static byte[] marker(long generation) throws IOException{
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(8);
+		new DataOutputStream(payload).writeLong(generation);
+		return frame(SNAPSHOT, payload.toByteArray());
+	}
+	
+	private void discard(Exception e){
+		record.reset();
+		StargateLogger.error("Could not journal a Stargate Network change!");
+		e.printStackTrace();
+	}
+	
+	/**
+	 * Takes all pending records out of the memory buffer, to be appended to the journal file
+	 * with {@link #append(byte[])}. Called on the server thread.
+	 * 
+	 * @return The pending records, or null if there are none.
+	 */
+	public byte[] drainPending(){
+		if(pendingRecords == 0) return null;
+		byte[] chunk = pending.toByteArray();
+		journalRecords += pendingRecords;
+		pendingRecords = 0;
+		pending.reset();
+		return chunk;
+	}
+	
+	/**
+	 * Takes all pending records out of the memory buffer, followed by the marker of a new
+	 * snapshot, and restarts the record count. They must be appended to the journal file
+	 * before any data file of that snapshot is written. Called on the server thread when
+	 * a snapshot containing all these changes is taken.
+	 */
+	public byte[] drainForSnapshot(long generation) throws IOException{
+		pending.write(marker(generation));
+		byte[] chunk = pending.toByteArray();
+		pending.reset();
+		pendingRecords = 0;
+		journalRecords = 0;
+		return chunk;
+	}
+	
+	/**
+	 * Appends drained records to the journal file and syncs it to disk.
+	 */
+	public void append(byte[] chunk) throws IOException{
+		FileOutputStream fos = new FileOutputStream(file, true);
+		try{
+			fos.write(chunk);
+			fos.getFD().sync();
+		}finally{
+			fos.close();
+		}
+	}
+	
+	/**
+	 * Cuts the journal file back to the marker of a snapshot, once every data file of it was written.
+	 */
+	public void truncateFile(long generation) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try{
+			raf.setLength(0);
+			raf.write(marker(generation));
+			raf.getFD().sync();
+		}finally{
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Applies every intact record in the journal file to the network, in order, skipping the
+	 * ones that are already in the data file they belong to.
+	 * A torn or corrupted tail is cut off so new records append after the last good one.
+	 * 
+	 * @param wormholes The generation of the wormhole file.
+	 * @param addresses The generation of the address file.
+	 * @param prefixes The generation of the prefix file.
+	 * @return The generation of the oldest snapshot the journal has every later change of,
+	 * or Long.MAX_VALUE if the journal is empty.
+	 */
+	public long replay(StargateNetwork network, long wormholes, long addresses, long prefixes) throws IOException{
+		journalRecords = 0;
+		if(!file.exists()) return Long.MAX_VALUE;
+		// Records before the first marker come from before snapshots had generations, which are all 0.
+		long after = 0;
+		long base = Long.MAX_VALUE;
+		long valid = 0;
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try{
+			while(true){
+				byte type;
+				byte[] payload;
+				try{
+					type = dis.readByte();
+					int length = dis.readInt();
+					if(length < 0 || length > file.length()) break;
+					payload = new byte[length];
+					dis.readFully(payload);
+					CRC32 crc = new CRC32();
+					crc.update(payload);
+					if(dis.readInt() != (int) crc.getValue()) break;
+				}catch(EOFException eof){
+					break;
+				}
+				DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+				if(type == SNAPSHOT){
+					after = data.readLong();
+				}else if(getGeneration(type, wormholes, addresses, prefixes) <= after){
+					apply(network, type, data);
+				}
+				if(journalRecords == 0) base = after;
+				valid += 1 + 4 + payload.length + 4;
+				journalRecords++;
+			}
+		}finally{
+			dis.close();
+		}
+		if(valid < file.length()){
+			StargateLogger.warning("The Stargate Network journal had a damaged tail, which was discarded.");
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try{
+				raf.setLength(valid);
+			}finally{
+				raf.close();
+			}
+		}
+		return base;
+	}
+	
+	/**
+	 * A data file written in generation G has every record from before the marker of G,
+	 * so a record after marker M is missing from it only if G <= M.
+	 */
+	private static long getGeneration(byte type, long wormholes, long addresses, long prefixes){
+		switch(type){
+			case ADDRESS_ADD:
+			case ADDRESS_FREE:
+				return addresses;
+			case PREFIX:
+			case CURSOR:
+				return prefixes;
+			case WORMHOLES:
+				return wormholes;
+			default:
+				return Long.MIN_VALUE;
+		}
+	}
+	
+	private void apply(StargateNetwork network, byte type, DataInputStream data) throws IOException{
+		switch(type){
+			case ADDRESS_ADD:
+				network.addMapping(AddressMapping.readFromStream(data));
+				break;
+			case ADDRESS_FREE:
+				network.removeMapping(readAddress(data));
+				break;
+			case PREFIX:
+				int dimension = data.readInt();
+				network.putPrefix(dimension, readPrefix(data));
+				break;
+			case CURSOR:
+				DimensionPrefix prefix = readPrefix(data);
+				network.setCursor(prefix, data.readLong());
+				break;
+			case WORMHOLES:
+				int count = data.readInt();
+				ArrayList<Wormhole> wormholes = new ArrayList();
+				try{
+					for(int i = 0; i < count; i++){
+						wormholes.add(Wormhole.readFromStream(data));
+					}
+				}catch(Exception e){
+					throw new IOException(e);
+				}
+				network.setWormholes(wormholes);
+				lastWormholeCount = count;
+				break;
+			default:
+				throw new IOException("Unknown Stargate Network journal record: " + type);
+		}
+	}
+	
+	private static DimensionPrefix readPrefix(DataInputStream dis) throws IOException{
+		Symbol[] symbols = new Symbol[3];
+		for(int i = 0; i < symbols.length; i++){
+			symbols[i] = Symbol.get(dis.readUnsignedByte());
+		}
+		return new DimensionPrefix(symbols);
+	}
+	
+	private static void writeAddress(DataOutputStream dos, Address address) throws IOException{
+		dos.writeByte(address.length());
+		for(int i = 0; i < address.length(); i++){
+			dos.writeByte(address.getSymbol(i).ordinal());
+		}
+	}
+	
+	private static Address readAddress(DataInputStream dis) throws IOException{
+		Symbol[] symbols = new Symbol[dis.readUnsignedByte()];
+		for(int i = 0; i < symbols.length; i++){
+			symbols[i] = Symbol.get(dis.readUnsignedByte());
+		}
+		return Address.create(symbols);
+	}
+}
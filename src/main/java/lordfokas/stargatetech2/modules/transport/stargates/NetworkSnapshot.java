@@ -0,0 +1,262 @@
+package lordfokas.stargatetech2.modules.transport.stargates;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import lordfokas.stargatetech2.api.stargate.Address;
+import lordfokas.stargatetech2.api.stargate.GateCursor;
+import lordfokas.stargatetech2.api.stargate.GateFilter;
+import lordfokas.stargatetech2.api.stargate.GateInfo;
+import lordfokas.stargatetech2.api.stargate.GatePage;
+import lordfokas.stargatetech2.api.stargate.Symbol;
+
+/**
+ * An immutable copy of the Stargate Network's addresses, prefixes and open wormholes.
+ * <br>
+ * The Stargate Network is only ever changed on the server thread. Once per tick, if
+ * anything changed, it publishes a new snapshot with a higher version, which other
+ * threads (computer integrations, dynamic world loaders) can read without any locking.
+ * The gates of each dimension are kept in their own immutable piece, so a new snapshot
+ * only copies the dimensions that changed and shares the rest with the previous one.
+ */
+public final class NetworkSnapshot {
+	public static final int MAX_PAGE_SIZE = 1000;
+	static final NetworkSnapshot EMPTY = new NetworkSnapshot(0, new TreeMap(), new HashMap(), new HashSet(), new HashSet());
+	
+	private final long version;
+	private final TreeMap<Integer, Gates> dimensions;
+	private final HashMap<Integer, DimensionPrefix> prefixes;
+	private final HashSet<DimensionPrefix> usedPrefixes;
+	private final HashSet<Address> busy;
+	
+	/**
+	 * The gates of one dimension, by address, by location, and in packed address order.
+	 */
+	private static final class Gates{
+		private final HashMap<Address, AddressMapping> addresses;
+		private final TreeMap<Long, AddressMapping> sorted;
+		private final GateIndex index = new GateIndex();
+		
+		private Gates(SortedMap<Long, AddressMapping> gates){
+			this.sorted = new TreeMap(gates);
+			this.addresses = new HashMap(sorted.size() * 2);
+			for(AddressMapping mapping : sorted.values()){
+				addresses.put(mapping.getAddress(), mapping);
+				index.add(mapping);
+			}
+		}
+	}
+	
+	private NetworkSnapshot(long version, TreeMap<Integer, Gates> dimensions, HashMap<Integer, DimensionPrefix> prefixes, HashSet<DimensionPrefix> usedPrefixes, HashSet<Address> busy){
+		this.version = version;
+		this.dimensions = dimensions;
+		this.prefixes = prefixes;
+		this.usedPrefixes = usedPrefixes;
+		this.busy = busy;
+	}
+	
+	/**
+	 * Copies the given live state, reusing every part of the previous snapshot that didn't
+	 * change since it was taken. Must be called on the server thread.
+	 * 
+	 * @param gates The live gates of each dimension, in packed address order.
+	 * @param changed The dimensions whose gates changed since the previous snapshot.
+	 * @param prefixes The live prefixes, or null if they and the reserved prefixes didn't change.
+	 * @param wormholes The live wormholes, or null if none of them opened, closed or reconnected.
+	 */
+	static NetworkSnapshot capture(NetworkSnapshot previous, long version, Map<Integer, ? extends SortedMap<Long, AddressMapping>> gates, Collection<Integer> changed, Map<Integer, DimensionPrefix> prefixes, Collection<DimensionPrefix> reserved, Collection<Wormhole> wormholes){
+		TreeMap<Integer, Gates> dimensions = previous.dimensions;
+		if(!changed.isEmpty()){
+			dimensions = new TreeMap(dimensions);
+			for(Integer dim : changed){
+				SortedMap<Long, AddressMapping> live = gates.get(dim);
+				if(live == null || live.isEmpty()){
+					dimensions.remove(dim);
+				}else{
+					dimensions.put(dim, new Gates(live));
+				}
+			}
+		}
+		HashMap<Integer, DimensionPrefix> prefixCopy = previous.prefixes;
+		HashSet<DimensionPrefix> used = previous.usedPrefixes;
+		if(prefixes != null){
+			prefixCopy = new HashMap(prefixes);
+			used = new HashSet(prefixes.values());
+			used.addAll(reserved);
+		}
+		HashSet<Address> busy = previous.busy;
+		if(wormholes != null){
+			busy = new HashSet();
+			for(Wormhole wormhole : wormholes){
+				if(wormhole.isActive() && wormhole.isBound()){
+					busy.add(wormhole.getSourceAddress());
+					busy.add(wormhole.getDestinationAddress());
+				}
+			}
+		}
+		return new NetworkSnapshot(version, dimensions, prefixCopy, used, busy);
+	}
+	
+	/**
+	 * @return A number that grows every time a new snapshot is published.
+	 */
+	public long getVersion(){
+		return version;
+	}
+	
+	/**
+	 * There are only ever a few dimensions, so each of them is simply asked in turn.
+	 */
+	public AddressMapping getAddressMapping(Address address){
+		for(Gates gates : dimensions.values()){
+			AddressMapping mapping = gates.addresses.get(address);
+			if(mapping != null) return mapping;
+		}
+		return null;
+	}
+	
+	public boolean addressExists(Address address){
+		return getAddressMapping(address) != null;
+	}
+	
+	public DimensionPrefix getPrefix(int dimension){
+		return prefixes.get(Integer.valueOf(dimension));
+	}
+	
+	public boolean prefixExists(DimensionPrefix prefix){
+		return usedPrefixes.contains(prefix);
+	}
+	
+	/**
+	 * @return Whether this address is one of the ends of an open wormhole.
+	 */
+	public boolean isBusy(Address address){
+		return busy.contains(address);
+	}
+	
+	public Address getAddressOf(int d, int x, int y, int z){
+		Gates gates = dimensions.get(Integer.valueOf(d));
+		AddressMapping mapping = gates == null ? null : gates.index.get(d, x, y, z);
+		return mapping == null ? null : mapping.getAddress();
+	}
+	
+	public Address findNearestStargate(int d, int x, int y, int z, long maxDistSq){
+		Gates gates = dimensions.get(Integer.valueOf(d));
+		AddressMapping mapping = gates == null ? null : gates.index.nearest(d, x, y, z, maxDistSq);
+		return mapping == null ? null : mapping.getAddress();
+	}
+	
+	/**
+	 * Lists gates in (dimension, packed address) order. Dimensions come from the sorted index,
+	 * boxes are narrowed down with the spatial index and prefixes with address ranges,
+	 * so only gates that can possibly match are ever looked at.
+	 */
+	public GatePage listGates(GateFilter filter, GateCursor cursor, int pageSize){
+		Page page = new Page(filter, Math.max(1, Math.min(MAX_PAGE_SIZE, pageSize)));
+		NavigableSet<Integer> dims = dimensions.navigableKeySet();
+		if(filter.hasDimension()){
+			Integer dim = Integer.valueOf(filter.getDimension());
+			dims = dims.subSet(dim, true, dim, true);
+		}
+		if(cursor != null){
+			dims = dims.tailSet(Integer.valueOf(cursor.dimension), true);
+		}
+		for(Integer dim : dims){
+			Gates piece = dimensions.get(dim);
+			NavigableMap<Long, AddressMapping> gates = piece.sorted;
+			if(filter.hasBox()){
+				int[] box = filter.getBox();
+				ArrayList<AddressMapping> found = new ArrayList();
+				piece.index.collectWithin(dim.intValue(), box[0], box[1], box[2], box[3], box[4], box[5], found);
+				TreeMap<Long, AddressMapping> inside = new TreeMap();
+				for(AddressMapping mapping : found){
+					inside.put(Long.valueOf(mapping.getAddress().getPackedValue()), mapping);
+				}
+				gates = inside;
+			}
+			boolean resume = (cursor != null && cursor.dimension == dim.intValue());
+			if(filter.hasPrefix()){
+				long[] ranges = getPrefixRanges(filter.getPrefix());
+				for(int i = 0; i < ranges.length; i += 2){
+					long min = ranges[i], max = ranges[i+1];
+					boolean inclusive = true;
+					if(resume && cursor.address >= min){
+						if(cursor.address >= max) continue;
+						min = cursor.address;
+						inclusive = false;
+					}
+					if(!page.offer(gates.subMap(Long.valueOf(min), inclusive, Long.valueOf(max), true).values())) return page.finish();
+				}
+			}else{
+				if(resume) gates = gates.tailMap(Long.valueOf(cursor.address), false);
+				if(!page.offer(gates.values())) return page.finish();
+			}
+		}
+		return page.finish();
+	}
+	
+	/**
+	 * Packed addresses start with their length and then their symbols, so for each
+	 * possible address length all addresses with a given prefix form a single range.
+	 * 
+	 * @return {min, max} pairs of packed values, in ascending order.
+	 */
+	private static long[] getPrefixRanges(Symbol[] prefix){
+		long bits = (prefix[0].ordinal() << 12) | (prefix[1].ordinal() << 6) | prefix[2].ordinal();
+		long[] ranges = new long[6];
+		for(int length = 7; length <= 9; length++){
+			int rest = 6 * (length - 3);
+			long min = (((long)length) << (6 * length)) | (bits << rest);
+			ranges[(length - 7) * 2] = min;
+			ranges[(length - 7) * 2 + 1] = min | ((1L << rest) - 1);
+		}
+		return ranges;
+	}
+	
+	private final class Page{
+		private final GateFilter filter;
+		private final int size;
+		private final ArrayList<GateInfo> gates;
+		private AddressMapping last = null;
+		private boolean hasMore = false;
+		
+		private Page(GateFilter filter, int size){
+			this.filter = filter;
+			this.size = size;
+			this.gates = new ArrayList(size);
+		}
+		
+		/**
+		 * @return false once the page is full and there is at least one more match after it.
+		 */
+		private boolean offer(Collection<AddressMapping> mappings){
+			for(AddressMapping m : mappings){
+				boolean isBusy = busy.contains(m.getAddress());
+				if(!filter.matches(m.getAddress(), m.getDimension(), m.getXCoord(), m.getYCoord(), m.getZCoord(), isBusy)) continue;
+				if(gates.size() == size){
+					hasMore = true;
+					return false;
+				}
+				gates.add(new GateInfo(m.getAddress(), m.getDimension(), m.getXCoord(), m.getYCoord(), m.getZCoord(), isBusy));
+				last = m;
+			}
+			return true;
+		}
+		
+		private GatePage finish(){
+			GateCursor next = null;
+			if(hasMore){
+				next = new GateCursor(last.getDimension(), last.getAddress().getPackedValue());
+			}
+			return new GatePage(Collections.unmodifiableList(gates), next);
+		}
+	}
+}
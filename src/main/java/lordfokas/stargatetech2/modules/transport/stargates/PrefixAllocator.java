@@ -0,0 +1,72 @@
+package lordfokas.stargatetech2.modules.transport.stargates;
+
+import java.util.Random;
+
+import lordfokas.stargatetech2.api.stargate.Symbol;
+
+/**
+ * Keeps the set of dimension prefixes that are neither in use nor reserved,
+ * so a new prefix can be handed out in constant time instead of retrying
+ * random prefixes until a free one comes up.
+ */
+public final class PrefixAllocator {
+	private static final int SYMBOLS = Symbol.values().length - 1;
+	private static final int SPACE = SYMBOLS * SYMBOLS * SYMBOLS;
+	
+	private final int[] pool = new int[SPACE];
+	private final int[] position = new int[SPACE];
+	private int free = 0;
+	
+	public PrefixAllocator(){
+		for(int i = 0; i < SPACE; i++){
+			position[i] = -1;
+			int a = i / (SYMBOLS * SYMBOLS), b = (i / SYMBOLS) % SYMBOLS, c = i % SYMBOLS;
+			if(a != b && b != c && a != c){
+				position[i] = free;
+				pool[free++] = i;
+			}
+		}
+	}
+	
+	/**
+	 * Removes a prefix from the free set. Does nothing if it was already taken.
+	 */
+	public void take(DimensionPrefix prefix){
+		int index = index(prefix);
+		if(index < 0) return;
+		int pos = position[index];
+		if(pos < 0) return;
+		int last = pool[--free];
+		pool[pos] = last;
+		position[last] = pos;
+		position[index] = -1;
+	}
+	
+	/**
+	 * Picks a random free prefix and removes it from the free set.
+	 * 
+	 * @return The allocated prefix, or null if every prefix is taken.
+	 */
+	public DimensionPrefix allocate(Random random){
+		if(free == 0) return null;
+		int index = pool[random.nextInt(free)];
+		DimensionPrefix prefix = new DimensionPrefix(new Symbol[]{
+			Symbol.get(index / (SYMBOLS * SYMBOLS) + 1),
+			Symbol.get((index / SYMBOLS) % SYMBOLS + 1),
+			Symbol.get(index % SYMBOLS + 1)
+		});
+		take(prefix);
+		return prefix;
+	}
+	
+	public int getFreeCount(){
+		return free;
+	}
+	
+	private static int index(DimensionPrefix prefix){
+		Symbol[] syms = prefix.getSymbols();
+		int a = syms[0].ordinal() - 1, b = syms[1].ordinal() - 1, c = syms[2].ordinal() - 1;
+		if(a < 0 || b < 0 || c < 0) return -1;
+		return (a * SYMBOLS + b) * SYMBOLS + c;
+	}
+}
@@ -1,50 +1,77 @@
 package lordfokas.stargatetech2.modules.transport.stargates;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
 
 import lordfokas.stargatetech2.api.stargate.Address;
 import lordfokas.stargatetech2.api.stargate.DialError;
 import lordfokas.stargatetech2.api.stargate.DialEvent;
+import lordfokas.stargatetech2.api.stargate.GateCursor;
+import lordfokas.stargatetech2.api.stargate.GateFilter;
+import lordfokas.stargatetech2.api.stargate.GatePage;
 import lordfokas.stargatetech2.api.stargate.IDynamicWorldLoader;
 import lordfokas.stargatetech2.api.stargate.IStargateNetwork;
 import lordfokas.stargatetech2.api.stargate.Symbol;
 import lordfokas.stargatetech2.modules.transport.TileStargate;
-import lordfokas.stargatetech2.util.ChunkLoader;
 import lordfokas.stargatetech2.util.ConfigServer;
 import lordfokas.stargatetech2.util.Helper;
+import lordfokas.stargatetech2.util.SaveExecutor;
 import lordfokas.stargatetech2.util.StargateLogger;
 import lordfokas.stargatetech2.util.api.SeedingShip;
-import net.minecraft.server.MinecraftServer;
-import net.minecraft.tileentity.TileEntity;
 import net.minecraft.world.World;
-import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.DimensionManager;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
 
 public class StargateNetwork implements IStargateNetwork{
 	private static final StargateNetwork INSTANCE = new StargateNetwork();
 	public static final long MIN_SAVE_INTERVAL_MS = 5000;
 	public static final int RANDOM_ADDRESS_LENGTH = 8;
-	
-	private boolean isLoaded;
+	public static final int JOURNAL_COMPACT_RECORDS = 4096;
+	public static final String SAVE_JOB = "Stargate Network";
+	private static final int SNAPSHOT_MAGIC = 0xF5470001; // negative, so it can't be mistaken for an old file's count.
+	
+	private volatile boolean isLoaded;
+	private volatile NetworkSnapshot snapshot = NetworkSnapshot.EMPTY;
+	private Thread serverThread;
+	private boolean isDirty;
+	private long snapshotVersion = 0;
+	private long generation = 0;
+	private boolean hasPendingWormholes;
+	private boolean hasNewGates;
+	private int rehydrateTicks = 0;
 	private HashMap<DimensionPrefix, IDynamicWorldLoader> reserved;
 	private HashMap<Integer, DimensionPrefix> prefixes;
+	private HashMap<DimensionPrefix, Integer> dimensions;
+	private PrefixAllocator freePrefixes;
+	private HashMap<DimensionPrefix, AddressAllocator> allocators;
+	private HashMap<DimensionPrefix, Long> cursors;
 	private HashMap<Address, AddressMapping> addresses;
+	private GateIndex gateIndex;
+	private HashMap<Integer, TreeMap<Long, AddressMapping>> listing;
+	private HashSet<Integer> changedDimensions;
+	private boolean prefixesChanged;
+	private boolean wormholesChanged;
 	private ArrayList<Wormhole> activeWormholes;
+	private ArrayList<DialTask> dials;
 	private LinkedList<IDynamicWorldLoader> loaders;
+	private NetworkJournal journal;
 	private Address dynamicLoadingAddr = null;
 	private DimensionPrefix dynamicLoadingPrefix = null;
 	private long saveTime;
@@ -62,23 +89,60 @@ public class StargateNetwork implements IStargateNetwork{
 	@SubscribeEvent
 	public void save(WorldEvent.Save event){
 		long newSaveTime = System.currentTimeMillis();
-		if(newSaveTime > saveTime + MIN_SAVE_INTERVAL_MS){
+		if(newSaveTime > saveTime + MIN_SAVE_INTERVAL_MS && !SaveExecutor.instance().isBusy(SAVE_JOB)){
 			saveTime = newSaveTime;
-			writeToFile();
+			journal.wormholes(activeWormholes);
+			if(journal.getRecordCount() >= JOURNAL_COMPACT_RECORDS){
+				writeToFile();
+			}else{
+				flushJournal();
+			}
 		}
 	}
 	
 	public void load(){
 		reserved = new HashMap();
 		addresses = new HashMap();
+		gateIndex = new GateIndex();
+		listing = new HashMap();
+		changedDimensions = new HashSet();
+		prefixesChanged = true;
+		wormholesChanged = true;
 		prefixes = new HashMap();
+		dimensions = new HashMap();
+		freePrefixes = new PrefixAllocator();
+		allocators = new HashMap();
+		cursors = new HashMap();
+		freePrefixes.take(new DimensionPrefix(LoreAddresses.OVERWORLD));
+		freePrefixes.take(new DimensionPrefix(LoreAddresses.NETHER));
 		activeWormholes = new ArrayList();
+		dials = new ArrayList();
 		loaders = new LinkedList();
+		journal = new NetworkJournal(Helper.getSaveFile("journal.dat"));
+		generation = 0;
+		serverThread = Thread.currentThread();
 		readFromFile();
 		isLoaded = true;
+		hasPendingWormholes = !activeWormholes.isEmpty();
+		hasNewGates = true; // Worlds loaded before the network did already have their Stargates in place.
+		publishSnapshot();
 	}
 	
 	public void unload(){
+		if(isLoaded){
+			journal.wormholes(activeWormholes);
+			SaveExecutor.instance().awaitIdle();
+			flushJournal();
+		}
+		WormholeScheduler.instance().clear();
+		GateStateRegistry.instance().clear();
+		snapshot = NetworkSnapshot.EMPTY;
+		if(dials != null){
+			for(DialTask dial : dials){
+				dial.cancel();
+			}
+			dials.clear();
+		}
 		isLoaded = false;
 	}
 	
@@ -97,11 +161,11 @@ public class StargateNetwork implements IStargateNetwork{
 		loaders.remove(dwl);
 	}
 	
-	private void dinamicallyLoadWorlds(AddressMapping dstmap, AddressMapping srcmap, Address destination){
+	void dinamicallyLoadWorlds(AddressMapping dstmap, AddressMapping srcmap, Address destination){
 		Symbol[] syms = new Symbol[]{destination.getSymbol(0), destination.getSymbol(1), destination.getSymbol(2)};
 		dynamicLoadingPrefix = new DimensionPrefix(syms);
 		dynamicLoadingAddr = destination;
-		if(srcmap != null && dstmap == null && !prefixes.containsValue(dynamicLoadingPrefix)){
+		if(srcmap != null && dstmap == null && !dimensions.containsKey(dynamicLoadingPrefix)){
 			if(reserved.containsKey(dynamicLoadingPrefix)){
 				IDynamicWorldLoader loader = reserved.get(dynamicLoadingPrefix);
 				loader.loadWorldFor(destination, SeedingShip.SHIP);
@@ -119,54 +183,144 @@ public class StargateNetwork implements IStargateNetwork{
 		dynamicLoadingPrefix = null;
 	}
 	
+	/**
+	 * Starts dialing from one address to another. The dial itself runs over the next few ticks,
+	 * and its outcome is reported through {@link DialEvent.Success} or {@link DialEvent.Error}.
+	 * 
+	 * @return {@link DialError#DIALING_IN_PROGRESS} if the dial was started, or the reason it wasn't.
+	 */
 	public DialError dial(Address source, Address destination, int timeout){
+		if(isDialing(source)) return DialError.SOURCE_GATE_BUSY;
 		if (MinecraftForge.EVENT_BUS.post(new DialEvent.Pre(source, destination, timeout))) return DialError.DIALING_EVENT_CANCELED;
-		DialError error = DialError.UNKNOWN_LOGIC_ERROR;
-		AddressMapping srcmap = addresses.get(source);
-		AddressMapping dstmap = addresses.get(destination);
-		dinamicallyLoadWorlds(dstmap, srcmap, destination);
-		dstmap = addresses.get(destination);
-		if(srcmap != null && dstmap != null){
-			WorldServer srcworld = MinecraftServer.getServer().worldServerForDimension(srcmap.getDimension());
-			WorldServer dstworld = MinecraftServer.getServer().worldServerForDimension(dstmap.getDimension());
-			if(srcworld != null && dstworld != null && srcworld != dstworld){
-				long srcChunks = ChunkLoader.load9Chunks(srcworld, srcmap.getXCoord() >> 4, srcmap.getZCoord() >> 4);
-				long dstChunks = ChunkLoader.load9Chunks(dstworld, dstmap.getXCoord() >> 4, dstmap.getZCoord() >> 4);
-				if(srcChunks >= 0 && dstChunks >= 0){
-					TileEntity srcte = srcworld.getTileEntity(srcmap.getXCoord(), srcmap.getYCoord(), srcmap.getZCoord());
-					TileEntity dstte = dstworld.getTileEntity(dstmap.getXCoord(), dstmap.getYCoord(), dstmap.getZCoord());
-					if(srcte instanceof TileStargate && dstte instanceof TileStargate){
-						TileStargate src = (TileStargate) srcte;
-						TileStargate dst = (TileStargate) dstte;
-						if(src.canDial(8) && !dst.hasActiveWormhole()){
-							activeWormholes.add(new Wormhole(src, dst, srcChunks, dstChunks, timeout));
-							MinecraftForge.EVENT_BUS.post(new DialEvent.Success(source, destination, timeout));
-							return DialError.SUCCESSFULLY_DIALED;
-						}else{
-							if(dst.hasActiveWormhole()) error = DialError.TARGET_GATE_BUSY;
-							else error = DialError.NOT_ENOUGH_POWER;
-						}
-					}else{
-						if(!(srcte instanceof TileStargate)) error = DialError.SOURCE_GATE_NOT_FOUND;
-						else error = DialError.TARGET_GATE_NOT_FOUND;
-					}
-				}else{
-					if(srcChunks < 0) error = DialError.FAILED_CHUNKLOADING_SOURCE;
-					else error = DialError.FAILED_CHUNKLOADING_TARGET;
-				}
-				ChunkLoader.release(srcChunks);
-				ChunkLoader.release(dstChunks);
+		DialError error = prevalidate(source, destination);
+		if(error != null){
+			MinecraftForge.EVENT_BUS.post(new DialEvent.Error(source, destination, error));
+			return error;
+		}
+		dials.add(new DialTask(source, destination, timeout));
+		return DialError.DIALING_IN_PROGRESS;
+	}
+	
+	/**
+	 * Rejects dials that are certain to fail using only what is already in memory,
+	 * so they never get to load worlds or chunks.
+	 * 
+	 * @return The reason the dial would fail, or null if it has to be attempted to know.
+	 */
+	private DialError prevalidate(Address source, Address destination){
+		if(!addresses.containsKey(source)) return DialError.SOURCE_ADDRESS_NOT_FOUND;
+		if(!addresses.containsKey(destination)){
+			// Only addresses in dimensions that don't exist yet can be created by a world loader.
+			DimensionPrefix prefix = new DimensionPrefix(new Symbol[]{destination.getSymbol(0), destination.getSymbol(1), destination.getSymbol(2)});
+			if(dimensions.containsKey(prefix)) return DialError.TARGET_ADDRESS_NOT_FOUND;
+		}
+		// Same energy requirement DialTask checks before connecting.
+		return GateStateRegistry.instance().check(source, destination, TileStargate.getDialCost(8));
+	}
+	
+	public boolean isDialing(Address source){
+		if(!isLoaded) return false;
+		for(DialTask dial : dials){
+			if(dial.getSource().equals(source)) return true;
+		}
+		return false;
+	}
+	
+	@SubscribeEvent
+	public void onServerTick(TickEvent.ServerTickEvent event){
+		if(event.phase != TickEvent.Phase.END || !isLoaded) return;
+		if(!dials.isEmpty()) tickDials();
+		if(hasPendingWormholes && (hasNewGates || ++rehydrateTicks >= 20)) rehydrateWormholes();
+		if(isDirty) publishSnapshot();
+	}
+	
+	/**
+	 * Lets wormholes read from disk know that a Stargate was loaded, so they can try to reconnect.
+	 */
+	public void onGateLoaded(){
+		hasNewGates = true;
+	}
+	
+	/**
+	 * Wormholes read from disk wait, with their chunk tickets still held, until the chunks of both of
+	 * their Stargates are loaded by whatever brings those worlds up, instead of forcing every world
+	 * they touch to load at startup. The ones whose countdown runs out before that are dropped.
+	 */
+	private void rehydrateWormholes(){
+		hasNewGates = false;
+		rehydrateTicks = 0;
+		World overworld = DimensionManager.getWorld(0);
+		if(overworld == null) return;
+		// Every dimension shares the overworld's total time, which wormhole countdowns are measured against.
+		long time = overworld.getTotalWorldTime();
+		boolean pending = false;
+		for(Wormhole wormhole : activeWormholes.toArray(new Wormhole[activeWormholes.size()])){
+			if(wormhole.isBound()) continue;
+			if(wormhole.hasExpired(time) || !wormhole.rehydrate()){
+				wormhole.expire();
+			}else if(wormhole.isBound()){
+				markWormholesDirty();
 			}else{
-				if(srcworld == null) error = DialError.SOURCE_WORLD_NOT_FOUND;
-				else if(dstworld == null) error = DialError.TARGET_WORLD_NOT_FOUND;
-				else if(dstworld == srcworld) error = DialError.CANNOT_DIAL_SAME_WORLD;
+				pending = true;
 			}
-		}else{
-			if(srcmap == null) error = DialError.SOURCE_ADDRESS_NOT_FOUND;
-			else error = DialError.TARGET_ADDRESS_NOT_FOUND;
 		}
-		MinecraftForge.EVENT_BUS.post(new DialEvent.Error(source, destination, error));
-		return error;
+		hasPendingWormholes = pending;
+	}
+	
+	private void tickDials(){
+		long deadline = System.nanoTime() + ConfigServer.dialTickBudget * 1000000L;
+		// Dials that have to wait on chunks let the ones behind them use the rest of the budget.
+		for(DialTask dial : dials.toArray(new DialTask[dials.size()])){
+			if(System.nanoTime() >= deadline) break;
+			dial.tick(deadline);
+		}
+		for(Iterator<DialTask> i = dials.iterator(); i.hasNext();){
+			if(i.next().isDone()) i.remove();
+		}
+	}
+	
+	@Override
+	public GatePage listGates(GateFilter filter, GateCursor cursor, int pageSize){
+		if(filter == null) filter = new GateFilter();
+		return snapshot.listGates(filter, cursor, pageSize);
+	}
+	
+	/**
+	 * @return The latest published snapshot of the network. Safe to use from any thread.
+	 */
+	public NetworkSnapshot getSnapshot(){
+		return snapshot;
+	}
+	
+	private void publishSnapshot(){
+		isDirty = false;
+		snapshot = NetworkSnapshot.capture(snapshot, ++snapshotVersion, listing, changedDimensions,
+			prefixesChanged ? prefixes : null, reserved.keySet(), wormholesChanged ? activeWormholes : null);
+		changedDimensions.clear();
+		prefixesChanged = false;
+		wormholesChanged = false;
+	}
+	
+	private void markDirty(){
+		isDirty = true;
+	}
+	
+	private void markPrefixesDirty(){
+		prefixesChanged = true;
+		isDirty = true;
+	}
+	
+	private void markWormholesDirty(){
+		wormholesChanged = true;
+		isDirty = true;
+	}
+	
+	/**
+	 * Reads from threads other than the server thread are served from the snapshot,
+	 * since the live maps are only ever safe to touch from the server thread.
+	 */
+	private boolean isOffThread(){
+		return Thread.currentThread() != serverThread;
 	}
 	
 	@Override
@@ -181,6 +335,8 @@ public class StargateNetwork implements IStargateNetwork{
 		DimensionPrefix prefix = new DimensionPrefix(syms);
 		if(!reserved.containsKey(prefix)){
 			reserved.put(prefix, dwl);
+			freePrefixes.take(prefix);
+			markPrefixesDirty();
 			return true;
 		}
 		return false;
@@ -195,27 +351,23 @@ public class StargateNetwork implements IStargateNetwork{
 		}
 		
 		DimensionPrefix prefix = new DimensionPrefix(syms);
-		return reserved.containsKey(prefix) || prefixes.containsValue(prefix);
+		if(isOffThread()) return snapshot.prefixExists(prefix);
+		return reserved.containsKey(prefix) || dimensions.containsKey(prefix);
+	}
+	
+	void addWormhole(Wormhole wormhole){
+		activeWormholes.add(wormhole);
+		markWormholesDirty();
 	}
 	
 	public void removeWormhole(Wormhole wormhole){
 		activeWormholes.remove(wormhole);
+		markWormholesDirty();
 	}
 	
 	public boolean canPlaceStargateAt(World w, int x, int y, int z){
 		if(!isLoaded) return false;
-		int dim = w.provider.dimensionId;
-		for(AddressMapping map : addresses.values()){
-			if(map.getDimension() == dim){
-				int dx = x - map.getXCoord();
-				int dy = y - map.getYCoord();
-				int dz = z - map.getZCoord();
-				if(dx*dx + dy*dy + dz*dz < ConfigServer.stargateMinDistance){
-					return false;
-				}
-			}
-		}
-		return true;
+		return !gateIndex.anyWithin(w.provider.dimensionId, x, y, z, ConfigServer.stargateMinDistance);
 	}
 	
 	@Override
@@ -224,51 +376,22 @@ public class StargateNetwork implements IStargateNetwork{
 	}
 	
 	public static Address parse(String address){
-		try{
-			String[] parts = address.toLowerCase().split(" ");
-			LinkedList<Symbol> symbols = new LinkedList();
-			if(parts.length != 3) throw new Exception("Address too short.");
-			for(String part : parts){
-				for(int p = 0; p < 3; p++){
-					for(int s = 1; s < Symbol.values().length; s++){
-						Symbol sym = Symbol.get(s);
-						String name = sym.toString().toLowerCase();
-						if(part.contentEquals(name)){
-							symbols.addLast(sym);
-							p = 5;
-							break;
-						}else if(part.startsWith(name)){
-							symbols.addLast(sym);
-							part = part.substring(name.length());
-							break;
-						}
-					}
-				}
-			}
-			Symbol[] sym = new Symbol[symbols.size()];
-			for(int i = 0; i < symbols.size(); i++){
-				sym[i] = symbols.get(i);
-			}
-			return Address.create(sym);
-		}catch(Exception e){
-			return null;
-		}
+		return AddressParser.parse(address);
 	}
 	
 	public AddressMapping getAddressMapping(Address address) {
+		if(isOffThread()) return snapshot.getAddressMapping(address);
 		return addresses.get(address);
 	}
 	
 	@Override
 	public boolean addressExists(Address address){
-		if(isLoaded) return addresses.containsKey(address);
-		else return false;
+		if(!isLoaded) return false;
+		if(isOffThread()) return snapshot.addressExists(address);
+		return addresses.containsKey(address);
 	}
 	
 	private Address getRandomAddress(World world){
-		Random random = new Random();
-		Symbol[] symbols;
-		Address address;
 		DimensionPrefix prefix;
 		Integer key = new Integer(world.provider.dimensionId);
 		if(prefixes.containsKey(key)){
@@ -276,38 +399,27 @@ public class StargateNetwork implements IStargateNetwork{
 		}else{
 			prefix = generatePrefixForDimension(key);
 		}
-		Symbol[] pfx = prefix.getSymbols();
-		do{
-			boolean used[] = new boolean[40];
-			used[0] = true;
-			symbols = new Symbol[RANDOM_ADDRESS_LENGTH];
-			for(int i = 0; i < symbols.length; i++){
-				if(i < pfx.length){
-					symbols[i] = pfx[i];
-					used[pfx[i].ordinal()] = true;
-				}else{
-					int s;
-					do{
-						s = random.nextInt(39) + 1;
-					}while(used[s]);
-					symbols[i] = Symbol.values()[s];
-					used[s] = true;
-				}
-			}
-			address = Address.create(symbols);
-		}while(address == null || addressExists(address));
+		AddressAllocator allocator = allocators.get(prefix);
+		if(allocator == null){
+			Long cursor = cursors.remove(prefix);
+			allocator = new AddressAllocator(prefix, world.getSeed(), cursor == null ? 0 : cursor.longValue());
+			allocators.put(prefix, allocator);
+		}
+		Address address = allocator.next(addresses.keySet());
+		if(address == null){
+			StargateLogger.error("There are no free Stargate addresses left in dimension " + key + "!");
+		}else if(isLoaded){
+			journal.cursorMoved(prefix, allocator.getCursor());
+		}
 		return address;
 	}
 	
 	@Override
 	public Address getAddressOf(World world, int x, int y, int z){
 		if(isLoaded){
-			Collection<AddressMapping> mappings = addresses.values();
-			for(AddressMapping m : mappings){
-				if(m.getDimension() == world.provider.dimensionId && m.getXCoord() == x && m.getYCoord() == y && m.getZCoord() == z){
-					return m.getAddress();
-				}
-			}
+			if(isOffThread()) return snapshot.getAddressOf(world.provider.dimensionId, x, y, z);
+			AddressMapping m = gateIndex.get(world.provider.dimensionId, x, y, z);
+			if(m != null) return m.getAddress();
 		}
 		return null;
 	}
@@ -316,13 +428,14 @@ public class StargateNetwork implements IStargateNetwork{
 		Address address = getAddressOf(world, x, y, z);
 		if(address == null){
 			if(dynamicLoadingAddr != null && dynamicLoadingPrefix != null && prefixes.get(world.provider.dimensionId) == null){
-				prefixes.put(world.provider.dimensionId, dynamicLoadingPrefix);
+				putPrefix(world.provider.dimensionId, dynamicLoadingPrefix);
 				address = dynamicLoadingAddr;
 			}else{
 				address = getRandomAddress(world);
+				if(address == null) return null;
 			}
 			AddressMapping mapping = new AddressMapping(address, world.provider.dimensionId, x, y, z);
-			addresses.put(address, mapping);
+			addMapping(mapping);
 		}
 		return address;
 	}
@@ -330,29 +443,58 @@ public class StargateNetwork implements IStargateNetwork{
 	public void freeMyAddress(World world, int x, int y, int z){
 		Address address = getAddressOf(world, x, y, z);
 		if(address != null){
-			addresses.remove(address);
+			removeMapping(address);
 		}
 	}
 	
+	void addMapping(AddressMapping mapping){
+		AddressMapping old = addresses.put(mapping.getAddress(), mapping);
+		if(old != null) unlist(old);
+		gateIndex.add(mapping);
+		Integer dim = Integer.valueOf(mapping.getDimension());
+		TreeMap<Long, AddressMapping> gates = listing.get(dim);
+		if(gates == null){
+			gates = new TreeMap();
+			listing.put(dim, gates);
+		}
+		gates.put(Long.valueOf(mapping.getAddress().getPackedValue()), mapping);
+		changedDimensions.add(dim);
+		markDirty();
+		if(isLoaded) journal.addressAdded(mapping);
+	}
+	
+	void removeMapping(Address address){
+		AddressMapping mapping = addresses.remove(address);
+		if(mapping != null){
+			unlist(mapping);
+			markDirty();
+			if(isLoaded) journal.addressFreed(address);
+		}
+	}
+	
+	private void unlist(AddressMapping mapping){
+		gateIndex.remove(mapping);
+		Integer dim = Integer.valueOf(mapping.getDimension());
+		TreeMap<Long, AddressMapping> gates = listing.get(dim);
+		if(gates != null){
+			gates.remove(Long.valueOf(mapping.getAddress().getPackedValue()));
+			if(gates.isEmpty()) listing.remove(dim);
+		}
+		changedDimensions.add(dim);
+	}
+	
+	void setWormholes(ArrayList<Wormhole> wormholes){
+		activeWormholes = wormholes;
+		markWormholesDirty();
+	}
+	
 	@Override
 	public Address findNearestStargate(World w, int x, int y, int z, int r) {
 		if(!isLoaded) return null;
-		int dim = w.provider.dimensionId;
-		int nearest = r < 0 ? -1 : r*r;
-		Address addr = null;
-		for(AddressMapping map : addresses.values()){
-			if(map.getDimension() == dim){
-				int dx = x - map.getXCoord();
-				int dy = y - map.getYCoord();
-				int dz = z - map.getZCoord();
-				int dst = dx*dx + dy*dy + dz*dz;
-				if (dst < nearest || nearest < 0) {
-					nearest = dst;
-					addr = map.getAddress();
-				}
-			}
-		}
-		return addr;
+		long maxDistSq = r < 0 ? -1L : ((long)r)*r;
+		if(isOffThread()) return snapshot.findNearestStargate(w.provider.dimensionId, x, y, z, maxDistSq);
+		AddressMapping map = gateIndex.nearest(w.provider.dimensionId, x, y, z, maxDistSq);
+		return map == null ? null : map.getAddress();
 	}
 	
 	private DimensionPrefix generatePrefixForDimension(Integer key){
@@ -365,60 +507,106 @@ public class StargateNetwork implements IStargateNetwork{
 				prefix = new DimensionPrefix(LoreAddresses.NETHER);
 				break;
 			default:
-				do{
-					prefix = DimensionPrefix.generateRandom();
-				}while(prefixes.containsValue(prefix) || reserved.containsKey(prefix));
+				prefix = freePrefixes.allocate(new Random());
+				if(prefix == null) throw new IllegalStateException("The Stargate Network ran out of dimension prefixes!");
 		}
-		prefixes.put(key, prefix);
+		putPrefix(key.intValue(), prefix);
 		return prefix;
 	}
 	
-	public void initializeWormholes(){
-		if(!isLoaded) return;
-		for(Wormhole wormhole : activeWormholes){
-			wormhole.initialize();
-		}
+	void putPrefix(int dim, DimensionPrefix prefix){
+		Integer key = Integer.valueOf(dim);
+		DimensionPrefix old = prefixes.put(key, prefix);
+		if(old != null) dimensions.remove(old);
+		dimensions.put(prefix, key);
+		freePrefixes.take(prefix);
+		markPrefixesDirty();
+		if(isLoaded) journal.prefixSet(dim, prefix);
+	}
+	
+	/**
+	 * Restores where the allocator of a prefix stopped. Only called while loading,
+	 * before any allocator was made.
+	 */
+	void setCursor(DimensionPrefix prefix, long cursor){
+		cursors.put(prefix, Long.valueOf(cursor));
 	}
 	
 	private void readFromFile(){
+		File wormholeFile = Helper.getSaveFile("wormholes.dat");
+		File addressFile = Helper.getSaveFile("addresses.dat");
+		File prefixFile = Helper.getSaveFile("prefixes.dat");
+		boolean hasWormhole = wormholeFile.exists();
+		boolean hasAddress = addressFile.exists();
+		boolean hasPrefix = prefixFile.exists();
+		boolean isNew = false;
+		long wormholeGen = 0, addressGen = 0, prefixGen = 0;
+		if(hasWormhole && hasAddress && hasPrefix){
+			// A file that fails to read counts as an empty generation 0 one, so the journal still gets replayed.
+			try{
+				wormholeGen = readWormholes(wormholeFile);
+			}catch(Exception e){
+				StargateLogger.error("There was an error while trying to read the Stargate Network Wormhole file");
+				e.printStackTrace();
+			}
+			try{
+				addressGen = readAddresses(addressFile);
+			}catch(Exception e){
+				StargateLogger.error("There was an error while trying to read the Stargate Network Address file");
+				e.printStackTrace();
+			}
+			try{
+				prefixGen = readPrefixes(prefixFile);
+			}catch(Exception e){
+				StargateLogger.error("There was an error while trying to read the Stargate Network Prefix file");
+				e.printStackTrace();
+			}
+		}else if(hasWormhole || hasAddress || hasPrefix){
+			StargateLogger.error("Some Stargate Network data files are missing. This may be a very serious problem!");
+			FMLCommonHandler.instance().raiseException(new Exception("StargateTech2 detected save corruption!"), "StargateTech2 detected save corruption!", false);
+		}else{
+			StargateLogger.warning("All Stargate Network data files are missing. This is normal when saves are first created.");
+			StargateLogger.info("Creating new Wormhole, Address and Prefix files for the Stargate Network.");
+			isNew = true;
+		}
 		try{
-			File wormholeFile = Helper.getSaveFile("wormholes.dat");
-			File addressFile = Helper.getSaveFile("addresses.dat");
-			File prefixFile = Helper.getSaveFile("prefixes.dat");
-			boolean hasWormhole = wormholeFile.exists();
-			boolean hasAddress = addressFile.exists();
-			boolean hasPrefix = prefixFile.exists();
-			if(hasWormhole && hasAddress && hasPrefix){
-				readWormholes(wormholeFile);
-				readAddresses(addressFile);
-				readPrefixes(prefixFile);
-			}else if(hasWormhole || hasAddress || hasPrefix){
-				StargateLogger.error("Some Stargate Network data files are missing. This may be a very serious problem!");
+			long base = journal.replay(this, wormholeGen, addressGen, prefixGen);
+			long oldest = Math.min(wormholeGen, Math.min(addressGen, prefixGen));
+			generation = Math.max(wormholeGen, Math.max(addressGen, prefixGen));
+			// A crash while a snapshot was written leaves files of two generations, which the journal can only fix if it goes back to the older one.
+			if(oldest != generation && base > oldest){
+				StargateLogger.error("The Stargate Network data files are from different saves and the journal can't reconcile them!");
 				FMLCommonHandler.instance().raiseException(new Exception("StargateTech2 detected save corruption!"), "StargateTech2 detected save corruption!", false);
-			}else{
-				StargateLogger.warning("All Stargate Network data files are missing. This is normal when saves are first created.");
-				StargateLogger.info("Creating new Wormhole, Address and Prefix files for the Stargate Network.");
-				wormholeFile.createNewFile();
-				addressFile.createNewFile();
-				prefixFile.createNewFile();
 			}
 		}catch(Exception e){
-			StargateLogger.error("There was an error while trying to read Stargate Network files");
+			StargateLogger.error("There was an error while trying to read the Stargate Network journal");
 			e.printStackTrace();
 		}
+		// The first snapshot is written right away, so the files are never left without a stamp.
+		if(isNew) writeToFile();
 	}
 	
-	private void readWormholes(File wormholeFile) throws Exception{
+	/**
+	 * @return The generation of the snapshot the file was written in.
+	 */
+	private long readWormholes(File wormholeFile) throws Exception{
 		FileInputStream fis = null;
 		DataInputStream dis = null;
 		try{
+			if(wormholeFile.length() == 0) return 0;
 			fis = new FileInputStream(wormholeFile);
 			dis = new DataInputStream(fis);
+			long stamp = 0;
 			int count = dis.readInt();
+			if(count == SNAPSHOT_MAGIC){
+				stamp = dis.readLong();
+				count = dis.readInt();
+			}
 			for(int i = 0; i < count; i++){
 				activeWormholes.add(Wormhole.readFromStream(dis));
 			}
 			dis.close();
+			return stamp;
 		}catch(Exception e){
 			try{ dis.close(); }
 			catch(Exception ignored){}
@@ -426,32 +614,27 @@ public class StargateNetwork implements IStargateNetwork{
 		}
 	}
 	
-	private void readAddresses(File addressFile) throws Exception{
-		FileInputStream fis = null;
-		DataInputStream dis = null;
-		try{
-			fis = new FileInputStream(addressFile);
-			dis = new DataInputStream(fis);
-			int count = dis.readInt();
-			for(int i = 0; i < count; i++){
-				AddressMapping address = AddressMapping.readFromStream(dis);
-				addresses.put(address.getAddress(), address);
-			}
-			dis.close();
-		}catch(Exception e){
-			try{ dis.close(); }
-			catch(Exception ignored){}
-			throw e;
+	private long readAddresses(File addressFile) throws Exception{
+		AddressFile.Contents contents = AddressFile.read(addressFile);
+		for(AddressMapping mapping : contents.mappings){
+			addMapping(mapping);
 		}
+		return contents.generation;
 	}
 	
-	private void readPrefixes(File prefixFile) throws Exception{
+	private long readPrefixes(File prefixFile) throws Exception{
 		FileInputStream fis = null;
 		DataInputStream dis = null;
 		try{
+			if(prefixFile.length() == 0) return 0;
 			fis = new FileInputStream(prefixFile);
 			dis = new DataInputStream(fis);
+			long stamp = 0;
 			int count = dis.readInt();
+			if(count == SNAPSHOT_MAGIC){
+				stamp = dis.readLong();
+				count = dis.readInt();
+			}
 			for(int i = 0; i < count; i++){
 				int d = dis.readInt();
 				Symbol[] symbols = new Symbol[]{
@@ -459,9 +642,22 @@ public class StargateNetwork implements IStargateNetwork{
 					Symbol.get(dis.readInt()),
 					Symbol.get(dis.readInt())
 				};
-				prefixes.put(new Integer(d), new DimensionPrefix(symbols));
+				putPrefix(d, new DimensionPrefix(symbols));
+			}
+			// Allocator cursors were added after the prefixes; older files end here.
+			if(dis.available() > 0){
+				count = dis.readInt();
+				for(int i = 0; i < count; i++){
+					Symbol[] symbols = new Symbol[]{
+						Symbol.get(dis.readInt()),
+						Symbol.get(dis.readInt()),
+						Symbol.get(dis.readInt())
+					};
+					setCursor(new DimensionPrefix(symbols), dis.readLong());
+				}
 			}
 			dis.close();
+			return stamp;
 		}catch(Exception e){
 			try{ dis.close(); }
 			catch(Exception ignored){}
@@ -469,90 +665,95 @@ public class StargateNetwork implements IStargateNetwork{
 		}
 	}
 	
+	/**
+	 * Writes a snapshot of the whole network. The pending journal records and the snapshot's
+	 * marker go to the journal first, and the journal is only cut back after all three files
+	 * were replaced, so a crash at any point leaves every change either in its file or in the journal.
+	 */
 	private void writeToFile(){
 		try{
-			File wormholeFile = Helper.getSaveFile("wormholes.dat");
-			File addressFile = Helper.getSaveFile("addresses.dat");
-			File prefixFile = Helper.getSaveFile("prefixes.dat");
-			if(!wormholeFile.exists()){
-				StargateLogger.warning("Stargate Network Wormhole file is missing. A new one is being created.");
-				wormholeFile.createNewFile();
-			}
-			if(!addressFile.exists()){
-				StargateLogger.warning("Stargate Network Address file is missing. A new one is being created.");
-				addressFile.createNewFile();
-			}
-			if(!prefixFile.exists()){
-				StargateLogger.warning("Stargate Network Prefix file is missing. A new one is being created.");
-				prefixFile.createNewFile();
-			}
-			writeWormholes(wormholeFile);
-			writeAddresses(addressFile);
-			writePrefixes(prefixFile);
+			final long stamp = ++generation;
+			final byte[] wormholes = serializeWormholes(stamp);
+			final byte[] addresses = AddressFile.write(this.addresses.values(), stamp);
+			final byte[] prefixes = serializePrefixes(stamp);
+			final File wormholeFile = Helper.getSaveFile("wormholes.dat");
+			final File addressFile = Helper.getSaveFile("addresses.dat");
+			final File prefixFile = Helper.getSaveFile("prefixes.dat");
+			final byte[] chunk = journal.drainForSnapshot(stamp);
+			SaveExecutor.instance().submit(SAVE_JOB, new SaveExecutor.Job(){
+				@Override
+				public void write() throws Exception{
+					journal.append(chunk);
+					if(!wormholeFile.exists()){
+						StargateLogger.warning("Stargate Network Wormhole file is missing. A new one is being created.");
+					}
+					if(!addressFile.exists()){
+						StargateLogger.warning("Stargate Network Address file is missing. A new one is being created.");
+					}
+					if(!prefixFile.exists()){
+						StargateLogger.warning("Stargate Network Prefix file is missing. A new one is being created.");
+					}
+					SaveExecutor.writeAtomically(wormholeFile, wormholes);
+					SaveExecutor.writeAtomically(addressFile, addresses);
+					SaveExecutor.writeAtomically(prefixFile, prefixes);
+					journal.truncateFile(stamp);
+				}
+			});
 		}catch(Exception e){
 			StargateLogger.error("There was an error while trying to write Stargate Network files");
 			e.printStackTrace();
 		}
 	}
 	
-	private void writeWormholes(File wormholeFile) throws Exception{
-		FileOutputStream fos = null;
-		DataOutputStream dos = null;
-		try{
-			fos = new FileOutputStream(wormholeFile, false);
-			dos = new DataOutputStream(fos);
-			dos.writeInt(activeWormholes.size());
-			for(Wormhole wormhole : activeWormholes){
-				wormhole.writeToStream(dos);
+	private void flushJournal(){
+		final byte[] chunk = journal.drainPending();
+		if(chunk == null) return;
+		SaveExecutor.instance().submit(SAVE_JOB, new SaveExecutor.Job(){
+			@Override
+			public void write() throws Exception{
+				journal.append(chunk);
 			}
-			dos.close();
-		}catch(Exception e){
-			try{ dos.close(); }
-			catch(Exception ignored){}
-			throw e;
-		}
+		});
 	}
 	
-	private void writeAddresses(File addressFile) throws Exception{
-		FileOutputStream fos = null;
-		DataOutputStream dos = null;
-		try{
-			fos = new FileOutputStream(addressFile, false);
-			dos = new DataOutputStream(fos);
-			Collection<AddressMapping> values = addresses.values();
-			dos.writeInt(values.size());
-			for(AddressMapping address : values){
-				address.writeToStream(dos);
+	private byte[] serializeWormholes(long stamp) throws Exception{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bytes);
+		dos.writeInt(SNAPSHOT_MAGIC);
+		dos.writeLong(stamp);
+		dos.writeInt(activeWormholes.size());
+		for(Wormhole wormhole : activeWormholes){
+			wormhole.writeToStream(dos);
+		}
+		return bytes.toByteArray();
+	}
+	
+	private byte[] serializePrefixes(long stamp) throws Exception{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bytes);
+		dos.writeInt(SNAPSHOT_MAGIC);
+		dos.writeLong(stamp);
+		Set<Integer> keys = prefixes.keySet();
+		dos.writeInt(keys.size());
+		for(Integer key : keys){
+			DimensionPrefix prefix = prefixes.get(key);
+			Symbol[] symbols = prefix.getSymbols();
+			dos.writeInt(key.intValue());
+			for(Symbol s : symbols){
+				dos.writeInt(s.ordinal());
 			}
-			dos.close();
-		}catch(Exception e){
-			try{ dos.close(); }
-			catch(Exception ignored){}
-			throw e;
 		}
-	}
-	
-	private void writePrefixes(File prefixFile) throws Exception{
-		FileOutputStream fos = null;
-		DataOutputStream dos = null;
-		try{
-			fos = new FileOutputStream(prefixFile, false);
-			dos = new DataOutputStream(fos);
-			Set<Integer> keys = prefixes.keySet();
-			dos.writeInt(keys.size());
-			for(Integer key : keys){
-				DimensionPrefix prefix = prefixes.get(key);
-				Symbol[] symbols = prefix.getSymbols();
-				dos.writeInt(key.intValue());
-				for(Symbol s : symbols){
-					dos.writeInt(s.ordinal());
-				}
+		HashMap<DimensionPrefix, Long> positions = new HashMap(cursors);
+		for(Entry<DimensionPrefix, AddressAllocator> allocator : allocators.entrySet()){
+			positions.put(allocator.getKey(), Long.valueOf(allocator.getValue().getCursor()));
+		}
+		dos.writeInt(positions.size());
+		for(Entry<DimensionPrefix, Long> position : positions.entrySet()){
+			for(Symbol s : position.getKey().getSymbols()){
+				dos.writeInt(s.ordinal());
 			}
-			dos.close();
-		}catch(Exception e){
-			try{ dos.close(); }
-			catch(Exception ignored){}
-			throw e;
+			dos.writeLong(position.getValue().longValue());
 		}
+		return bytes.toByteArray();
 	}
 }
\ No newline at end of file
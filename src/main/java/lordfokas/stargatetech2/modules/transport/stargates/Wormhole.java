@@ -2,6 +2,7 @@ package lordfokas.stargatetech2.modules.transport.stargates;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 import lordfokas.stargatetech2.ZZ_THRASH.Vec3Int_THRASH;
@@ -10,11 +11,13 @@ import lordfokas.stargatetech2.api.stargate.Address;
 import lordfokas.stargatetech2.modules.transport.Teleporter;
 import lordfokas.stargatetech2.modules.transport.TileStargate;
 import lordfokas.stargatetech2.util.ChunkLoader;
-import lordfokas.stargatetech2.util.StargateLogger;
 import net.minecraft.entity.Entity;
-import net.minecraft.server.MinecraftServer;
+import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.AxisAlignedBB;
+import net.minecraft.util.MathHelper;
 import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.common.DimensionManager;
 
 public final class Wormhole {
 	private Vec4Int_THRASH tmpSrc, tmpDst;
@@ -22,6 +25,10 @@ public final class Wormhole {
 	private boolean isWormholeActive = true;
 	private long lastWormholeTime = 0;
 	private long countdown, src, dst;
+	private AxisAlignedBB horizon;
+	private Vec3Int_THRASH position;
+	private float yaw;
+	private int[] sections;
 	
 	private Wormhole(){}
 	
@@ -34,12 +41,19 @@ public final class Wormhole {
 		lastWormholeTime = source.getWorldObj().getTotalWorldTime();
 		source.setWormhole(this, true, true);
 		destination.setWormhole(this, false, true);
+		cacheGeometry();
+		WormholeScheduler.instance().add(this);
 	}
 	
-	public void update(){
+	/**
+	 * @param scan whether the event horizon should be checked for entities this tick.
+	 */
+	public void update(boolean scan){
 		countdown -= (source.getWorldObj().getTotalWorldTime() - lastWormholeTime);
 		lastWormholeTime = source.getWorldObj().getTotalWorldTime();
-		doTeleport();
+		if(scan && hasEntitiesNearHorizon()){
+			doTeleport();
+		}
 		if(countdown <= 0){
 			disconnect();
 		}
@@ -47,6 +61,7 @@ public final class Wormhole {
 	
 	public void disconnect(){
 		isWormholeActive = false;
+		WormholeScheduler.instance().remove(this);
 		source.onDisconnect();
 		destination.onDisconnect();
 		StargateNetwork.instance().removeWormhole(this);
@@ -58,6 +73,13 @@ public final class Wormhole {
 		return isWormholeActive;
 	}
 	
+	/**
+	 * @return Whether both Stargates of this wormhole have been resolved.
+	 */
+	boolean isBound(){
+		return source != null && destination != null;
+	}
+	
 	public Address getSourceAddress(){
 		return source.getAddress();
 	}
@@ -66,21 +88,64 @@ public final class Wormhole {
 		return destination.getAddress();
 	}
 	
-	private void doTeleport(){
-		AxisAlignedBB aabb;
+	/**
+	 * Computes the event horizon's bounding box, the arrival point, and the chunk sections
+	 * an entity touching the horizon can be stored in. Both gates are fixed for the whole
+	 * life of the wormhole, so this only has to be done once.
+	 */
+	private void cacheGeometry(){
 		if(source.isX()){
-			aabb = AxisAlignedBB.getBoundingBox(source.xCoord-1, source.yCoord+1, source.zCoord+0.375, source.xCoord+2, source.yCoord+4, source.zCoord+0.625);
+			horizon = AxisAlignedBB.getBoundingBox(source.xCoord-1, source.yCoord+1, source.zCoord+0.375, source.xCoord+2, source.yCoord+4, source.zCoord+0.625);
 		}else{
-			aabb = AxisAlignedBB.getBoundingBox(source.xCoord+0.375, source.yCoord+1, source.zCoord-1, source.xCoord+0.625, source.yCoord+4, source.zCoord+2);
+			horizon = AxisAlignedBB.getBoundingBox(source.xCoord+0.375, source.yCoord+1, source.zCoord-1, source.xCoord+0.625, source.yCoord+4, source.zCoord+2);
 		}
-		Vec3Int_THRASH position = new Vec3Int_THRASH(destination.xCoord, destination.yCoord+1, destination.zCoord);
-		float yaw = (90 * destination.getBlockMetadata());
-		List<Entity> entities = source.getWorldObj().getEntitiesWithinAABB(Entity.class, aabb);
+		position = new Vec3Int_THRASH(destination.xCoord, destination.yCoord+1, destination.zCoord);
+		yaw = (90 * destination.getBlockMetadata());
+		// Same margin World.getEntitiesWithinAABB uses to find entities centered outside the box.
+		int x0 = MathHelper.floor_double(horizon.minX - World.MAX_ENTITY_RADIUS) >> 4;
+		int x1 = MathHelper.floor_double(horizon.maxX + World.MAX_ENTITY_RADIUS) >> 4;
+		int z0 = MathHelper.floor_double(horizon.minZ - World.MAX_ENTITY_RADIUS) >> 4;
+		int z1 = MathHelper.floor_double(horizon.maxZ + World.MAX_ENTITY_RADIUS) >> 4;
+		int y0 = Math.max(0, MathHelper.floor_double(horizon.minY - World.MAX_ENTITY_RADIUS) >> 4);
+		int y1 = Math.min(15, MathHelper.floor_double(horizon.maxY + World.MAX_ENTITY_RADIUS) >> 4);
+		sections = new int[(x1 - x0 + 1) * (z1 - z0 + 1) * (y1 - y0 + 1) * 3];
+		int i = 0;
+		for(int cx = x0; cx <= x1; cx++){
+			for(int cz = z0; cz <= z1; cz++){
+				for(int cy = y0; cy <= y1; cy++){
+					sections[i++] = cx;
+					sections[i++] = cz;
+					sections[i++] = cy;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Cheap check that avoids the entity query when no entity is stored
+	 * in any of the chunk sections around the event horizon.
+	 */
+	private boolean hasEntitiesNearHorizon(){
+		World world = source.getWorldObj();
+		for(int i = 0; i < sections.length; i += 3){
+			if(!world.getChunkProvider().chunkExists(sections[i], sections[i+1])) continue;
+			Chunk chunk = world.getChunkFromChunkCoords(sections[i], sections[i+1]);
+			if(!chunk.entityLists[sections[i+2]].isEmpty()){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void doTeleport(){
+		List<Entity> entities = source.getWorldObj().getEntitiesWithinAABB(Entity.class, horizon);
+		ArrayList<Entity> travelers = new ArrayList(entities.size());
 		for(Entity entity : entities){
 			if(entity.riddenByEntity == null){
-				Teleporter.teleport(source.getWorldObj(), entity, destination.getWorldObj(), position, yaw);
+				travelers.add(entity);
 			}
 		}
+		Teleporter.teleportBatch(source.getWorldObj(), travelers, destination.getWorldObj(), position, yaw);
 	}
 	
 	public void writeToStream(DataOutputStream dos) throws Exception{
@@ -88,14 +153,23 @@ public final class Wormhole {
 		dos.writeLong(lastWormholeTime);
 		dos.writeLong(dst);
 		dos.writeLong(src);
-		dos.writeInt(source.getWorldObj().provider.dimensionId);
-		dos.writeInt(source.xCoord);
-		dos.writeInt(source.yCoord);
-		dos.writeInt(source.zCoord);
-		dos.writeInt(destination.getWorldObj().provider.dimensionId);
-		dos.writeInt(destination.xCoord);
-		dos.writeInt(destination.yCoord);
-		dos.writeInt(destination.zCoord);
+		writeEndpoint(dos, source, tmpSrc);
+		writeEndpoint(dos, destination, tmpDst);
+	}
+	
+	// Wormholes still waiting to be rehydrated only know where their Stargates are.
+	private static void writeEndpoint(DataOutputStream dos, TileStargate stargate, Vec4Int_THRASH pos) throws Exception{
+		if(stargate != null){
+			dos.writeInt(stargate.getWorldObj().provider.dimensionId);
+			dos.writeInt(stargate.xCoord);
+			dos.writeInt(stargate.yCoord);
+			dos.writeInt(stargate.zCoord);
+		}else{
+			dos.writeInt(pos.w);
+			dos.writeInt(pos.x);
+			dos.writeInt(pos.y);
+			dos.writeInt(pos.z);
+		}
 	}
 	
 	public static Wormhole readFromStream(DataInputStream dis) throws Exception{
@@ -118,22 +192,55 @@ public final class Wormhole {
 		return wh;
 	}
 	
-	public void initialize(){
-		try{
-			World w;
-			TileStargate s;
-			w = MinecraftServer.getServer().worldServerForDimension(tmpSrc.w);
-			s = (TileStargate) w.getTileEntity(tmpSrc.x, tmpSrc.y, tmpSrc.z);
-			source = s;
-			w = MinecraftServer.getServer().worldServerForDimension(tmpDst.w);
-			s = (TileStargate) w.getTileEntity(tmpDst.x, tmpDst.y, tmpDst.z);
-			destination = s;
-			source.setWormhole(this, true, false);
-			destination.setWormhole(this, false, false);
-		}catch(Exception e){
-			StargateNetwork.instance().removeWormhole(this);
-			StargateLogger.error("Error while initializing a wormhole!");
-			e.printStackTrace();
+	/**
+	 * Tries to find both Stargates of a wormhole that was read from disk, without loading
+	 * any world or chunk, and if they are there, reconnects them.
+	 * 
+	 * @return false if the wormhole can't be restored anymore and must be dropped.
+	 */
+	boolean rehydrate(){
+		TileStargate s = find(tmpSrc);
+		TileStargate d = find(tmpDst);
+		if(s == null || d == null) return true;
+		// One of the gates was dialed while this wormhole was waiting for the other.
+		if(s.hasActiveWormhole() || d.hasActiveWormhole()) return false;
+		source = s;
+		destination = d;
+		source.setWormhole(this, true, false);
+		destination.setWormhole(this, false, false);
+		cacheGeometry();
+		WormholeScheduler.instance().add(this);
+		return true;
+	}
+	
+	/**
+	 * @return Whether this wormhole's countdown has already run out at the given total world time.
+	 */
+	boolean hasExpired(long worldTime){
+		return countdown - (worldTime - lastWormholeTime) <= 0;
+	}
+	
+	/**
+	 * Drops a wormhole that was never reconnected.
+	 */
+	void expire(){
+		isWormholeActive = false;
+		StargateNetwork.instance().removeWormhole(this);
+		ChunkLoader.release(src, tmpSrc.w);
+		ChunkLoader.release(dst, tmpDst.w);
+		TileStargate s = find(tmpSrc);
+		TileStargate d = find(tmpDst);
+		if(s != null && !s.hasActiveWormhole()) s.onDisconnect();
+		if(d != null && !d.hasActiveWormhole()) d.onDisconnect();
+	}
+	
+	private static TileStargate find(Vec4Int_THRASH pos){
+		World world = DimensionManager.getWorld(pos.w);
+		if(world == null || !world.getChunkProvider().chunkExists(pos.x >> 4, pos.z >> 4)) return null;
+		TileEntity te = world.getTileEntity(pos.x, pos.y, pos.z);
+		if(te instanceof TileStargate && !te.isInvalid()){
+			return (TileStargate) te;
 		}
+		return null;
 	}
-}
\ No newline at end of file
+}
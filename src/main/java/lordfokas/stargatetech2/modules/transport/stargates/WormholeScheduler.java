@@ -0,0 +1,53 @@
+package lordfokas.stargatetech2.modules.transport.stargates;
+
+import java.util.ArrayList;
+
+import lordfokas.stargatetech2.util.ConfigServer;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+/**
+ * Ticks every open wormhole once per server tick, instead of having each source
+ * Stargate do it from its own tile entity update. Entity scans of the event horizon
+ * only run every {@link ConfigServer#wormholeScanInterval} ticks.
+ */
+public final class WormholeScheduler {
+	private static final WormholeScheduler INSTANCE = new WormholeScheduler();
+	
+	private final ArrayList<Wormhole> wormholes = new ArrayList();
+	private long ticks = 0;
+	
+	public static WormholeScheduler instance(){
+		return INSTANCE;
+	}
+	
+	private WormholeScheduler(){
+		MinecraftForge.EVENT_BUS.register(this);
+	}
+	
+	public void add(Wormhole wormhole){
+		if(!wormholes.contains(wormhole)) wormholes.add(wormhole);
+	}
+	
+	public void remove(Wormhole wormhole){
+		wormholes.remove(wormhole);
+	}
+	
+	public void clear(){
+		wormholes.clear();
+	}
+	
+	@SubscribeEvent
+	public void onServerTick(TickEvent.ServerTickEvent event){
+		if(event.phase != TickEvent.Phase.END || wormholes.isEmpty()) return;
+		ticks++;
+		boolean scan = ticks % Math.max(1, ConfigServer.wormholeScanInterval) == 0;
+		// Wormholes remove themselves from the list when they disconnect.
+		for(Wormhole wormhole : wormholes.toArray(new Wormhole[wormholes.size()])){
+			if(wormhole.isActive()){
+				wormhole.update(scan);
+			}
+		}
+	}
+}
@@ -1,5 +1,8 @@
 package lordfokas.stargatetech2.util;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
 public class ByteUtil {
 	public static int readInt(byte[] array, int pointer){
 		byte b0, b1, b2, b3;
@@ -16,4 +19,28 @@ public class ByteUtil {
 		array[pointer + 2] = (byte)((value & 0x0000FF00) >> 8 );
 		array[pointer + 3] = (byte) (value & 0x000000FF);
 	}
+	
+	/**
+	 * Writes a signed int as a ZigZag-encoded varint: 1 byte for small magnitudes, at most 5.
+	 */
+	public static void writeVarInt(ByteArrayOutputStream out, int value){
+		int v = (value << 1) ^ (value >> 31);
+		while((v & ~0x7F) != 0){
+			out.write((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+	
+	public static int readVarInt(ByteBuffer in){
+		int v = 0;
+		for(int shift = 0; shift < 35; shift += 7){
+			int b = in.get() & 0xFF;
+			v |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0){
+				return (v >>> 1) ^ -(v & 1);
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
 }
\ No newline at end of file
@@ -1,110 +1,278 @@
 package lordfokas.stargatetech2.util;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map.Entry;
 
 import lordfokas.stargatetech2.StargateTech2;
-import lordfokas.stargatetech2.modules.transport.stargates.StargateNetwork;
 import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.server.MinecraftServer;
+import net.minecraft.nbt.NBTTagList;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
+import net.minecraft.world.WorldSavedData;
+import net.minecraftforge.common.DimensionManager;
 import net.minecraftforge.common.ForgeChunkManager;
 import net.minecraftforge.common.ForgeChunkManager.LoadingCallback;
 import net.minecraftforge.common.ForgeChunkManager.Ticket;
 import net.minecraftforge.common.ForgeChunkManager.Type;
-import net.minecraftforge.common.MinecraftForge;
-import net.minecraftforge.event.world.WorldEvent;
-import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
-import net.minecraftforge.fml.server.FMLServerHandler;
 
+/**
+ * Keeps chunks loaded on behalf of Stargates.
+ * <br>
+ * Callers get a lease id for a set of chunks, and release that id when they are done.
+ * Chunks are reference counted across leases, so overlapping gates share them, and
+ * forced chunks are packed into as few Forge tickets per world as the ticket depth allows,
+ * so many dials against the same area don't exhaust the mod's ticket limit.
+ * <br>
+ * Lease ids are saved with the world, since leases of dimensions that aren't loaded yet
+ * only come back when their tickets do. Releasing such a lease is remembered until then.
+ */
 public final class ChunkLoader implements LoadingCallback{
 	public static final ChunkLoader instance = new ChunkLoader();
 	
-	private ArrayList<Integer> dims;
-	private ArrayList<Ticket> tickets;
-	private long ticketID = 0;
+	private HashMap<Long, Lease> leases = new HashMap();
+	private HashMap<Integer, TicketPool> pools = new HashMap();
+	private LeaseData data;
 	
-	private ChunkLoader(){}
-	
-	public static void register(){
-		ForgeChunkManager.setForcedChunkLoadingCallback(StargateTech2.instance, instance);
+	private static final class Lease{
+		private final int dimension;
+		private final ArrayList<ChunkPos> chunks = new ArrayList();
+		
+		private Lease(int dimension){
+			this.dimension = dimension;
+		}
 	}
 	
-	public static void load(){
-		instance.tickets = new ArrayList();
-		instance.dims = new ArrayList();
-		MinecraftForge.EVENT_BUS.register(instance);
-		File file = Helper.getSaveFile("chunks.dat");
-		if(file.exists())
-			try{
-				FileInputStream fis = new FileInputStream(file);
-				DataInputStream dis = new DataInputStream(fis);
-				int dims = dis.readInt();
-				for(int i = 0; i < dims; i++){
-					instance.dims.add(dis.readInt());
+	private static final class TicketPool{
+		private final World world;
+		private final ArrayList<Ticket> tickets = new ArrayList();
+		private final HashMap<ChunkPos, ArrayList<Long>> holders = new HashMap();
+		private final HashMap<ChunkPos, Ticket> owners = new HashMap();
+		
+		private TicketPool(World world){
+			this.world = world;
+		}
+		
+		private boolean acquire(ChunkPos chunk, long lease){
+			ArrayList<Long> holding = holders.get(chunk);
+			if(holding != null){
+				holding.add(lease);
+				save(owners.get(chunk));
+				return true;
+			}
+			Ticket ticket = null;
+			for(Ticket t : tickets){
+				if(t.getChunkList().size() < t.getChunkListDepth()){
+					ticket = t;
+					break;
 				}
-				dis.close();
-			}catch(Exception e){
-				e.printStackTrace();
 			}
-	}
-	
-	public static void unload(){
-		ArrayList<Integer> dims = new ArrayList();
-		for(Ticket ticket : instance.tickets){
-			Integer dim = ticket.world.provider.getDimension();
-			if(!dims.contains(dim)){
-				dims.add(dim);
+			if(ticket == null){
+				ticket = ForgeChunkManager.requestTicket(StargateTech2.instance, world, Type.NORMAL);
+				if(ticket == null) return false;
+				tickets.add(ticket);
 			}
+			holding = new ArrayList();
+			holding.add(lease);
+			holders.put(chunk, holding);
+			owners.put(chunk, ticket);
+			ForgeChunkManager.forceChunk(ticket, chunk);
+			save(ticket);
+			return true;
 		}
-		try{
-			File file = Helper.getSaveFile("chunks.dat");
-			if(!file.exists()){
-				file.createNewFile();
+		
+		private void release(ChunkPos chunk, long lease){
+			ArrayList<Long> holding = holders.get(chunk);
+			if(holding == null) return;
+			holding.remove(Long.valueOf(lease));
+			Ticket ticket = owners.get(chunk);
+			if(holding.isEmpty()){
+				holders.remove(chunk);
+				owners.remove(chunk);
+				ForgeChunkManager.unforceChunk(ticket, chunk);
+				if(ticket.getChunkList().isEmpty()){
+					tickets.remove(ticket);
+					ForgeChunkManager.releaseTicket(ticket);
+					return;
+				}
 			}
-			FileOutputStream fos = new FileOutputStream(file);
-			DataOutputStream dos = new DataOutputStream(fos);
-			dos.writeInt(dims.size());
-			for(Integer dim : dims){
-				dos.writeInt(dim.intValue());
+			save(ticket);
+		}
+		
+		private void restore(Ticket ticket){
+			tickets.add(ticket);
+			NBTTagCompound data = ticket.getModData();
+			NBTTagList chunks = data.getTagList("forced", 10);
+			for(int c = 0; c < chunks.tagCount(); c++){
+				NBTTagCompound entry = chunks.getCompoundTagAt(c);
+				ChunkPos chunk = new ChunkPos(entry.getInteger("x"), entry.getInteger("z"));
+				ArrayList<Long> holding = new ArrayList();
+				int[] ids = entry.getIntArray("leases");
+				for(int i = 0; i + 1 < ids.length; i += 2){
+					holding.add(Long.valueOf((((long)ids[i]) << 32) | (ids[i+1] & 0xFFFFFFFFL)));
+				}
+				restore(ticket, chunk, holding);
+			}
+			if(data.hasKey("ticketID")){ // tickets saved before leases were pooled
+				ArrayList<Long> holding = new ArrayList();
+				holding.add(Long.valueOf(data.getLong("ticketID")));
+				int count = data.getInteger("chunks");
+				for(int c = 0; c < count; c++){
+					if(!data.hasKey("cX_" + c)) continue;
+					restore(ticket, new ChunkPos(data.getInteger("cX_" + c), data.getInteger("cZ_" + c)), new ArrayList(holding));
+				}
+			}
+			if(ticket.getChunkList().isEmpty()){
+				tickets.remove(ticket);
+				ForgeChunkManager.releaseTicket(ticket);
+			}else{
+				save(ticket);
+			}
+		}
+		
+		private void restore(Ticket ticket, ChunkPos chunk, ArrayList<Long> holding){
+			LeaseData data = getData(world);
+			HashSet<Long> released = data.released.get(Integer.valueOf(world.provider.getDimension()));
+			if(released != null) holding.removeAll(released);
+			if(holding.isEmpty() || holders.containsKey(chunk)) return;
+			holders.put(chunk, holding);
+			owners.put(chunk, ticket);
+			ForgeChunkManager.forceChunk(ticket, chunk);
+			for(Long id : holding){
+				Lease lease = instance.leases.get(id);
+				if(lease == null){
+					lease = new Lease(world.provider.getDimension());
+					instance.leases.put(id, lease);
+				}
+				lease.chunks.add(chunk);
+				if(id.longValue() >= data.nextID){
+					data.nextID = id.longValue() + 1;
+					data.markDirty();
+				}
 			}
-			dos.close();
-		}catch(Exception e){
-			e.printStackTrace();
-			
+		}
+		
+		private void save(Ticket ticket){
+			NBTTagList chunks = new NBTTagList();
+			for(ChunkPos chunk : ticket.getChunkList()){
+				ArrayList<Long> holding = holders.get(chunk);
+				if(holding == null) continue;
+				int[] ids = new int[holding.size() * 2];
+				for(int i = 0; i < holding.size(); i++){
+					long id = holding.get(i).longValue();
+					ids[i*2] = (int)(id >> 32);
+					ids[i*2+1] = (int) id;
+				}
+				NBTTagCompound entry = new NBTTagCompound();
+				entry.setInteger("x", chunk.chunkXPos);
+				entry.setInteger("z", chunk.chunkZPos);
+				entry.setIntArray("leases", ids);
+				chunks.appendTag(entry);
+			}
+			NBTTagCompound data = ticket.getModData();
+			for(Object key : data.getKeySet().toArray()){
+				data.removeTag((String)key);
+			}
+			data.setTag("forced", chunks);
 		}
 	}
 	
-	@SubscribeEvent
-	public void forceReloadChunks(WorldEvent.Load evt){
-		if(evt.getWorld().provider.getDimension() == 0){
-			MinecraftServer server = FMLServerHandler.instance().getServer();
-			for(Integer dim : instance.dims){
-				server.worldServerForDimension(dim.intValue());
+	/**
+	 * The next lease id, and the leases released while the tickets holding them weren't loaded, per dimension.
+	 * Kept in the overworld's map storage, which every dimension shares.
+	 */
+	public static final class LeaseData extends WorldSavedData{
+		private static final String KEY = "StargateTech2:ChunkLoader";
+		private long nextID = 0;
+		private HashMap<Integer, HashSet<Long>> released = new HashMap();
+		
+		public LeaseData(String key){
+			super(key);
+		}
+		
+		@Override
+		public void readFromNBT(NBTTagCompound nbt){
+			nextID = nbt.getLong("nextID");
+			released = new HashMap();
+			NBTTagList list = nbt.getTagList("released", 10);
+			for(int i = 0; i < list.tagCount(); i++){
+				NBTTagCompound tag = list.getCompoundTagAt(i);
+				HashSet<Long> ids = new HashSet();
+				int[] packed = tag.getIntArray("leases");
+				for(int j = 0; j + 1 < packed.length; j += 2){
+					ids.add(Long.valueOf((((long)packed[j]) << 32) | (packed[j+1] & 0xFFFFFFFFL)));
+				}
+				released.put(Integer.valueOf(tag.getInteger("dim")), ids);
+			}
+		}
+		
+		@Override
+		public void writeToNBT(NBTTagCompound nbt){
+			nbt.setLong("nextID", nextID);
+			NBTTagList list = new NBTTagList();
+			for(Entry<Integer, HashSet<Long>> e : released.entrySet()){
+				int[] packed = new int[e.getValue().size() * 2];
+				int i = 0;
+				for(Long id : e.getValue()){
+					packed[i++] = (int)(id.longValue() >> 32);
+					packed[i++] = (int) id.longValue();
+				}
+				NBTTagCompound tag = new NBTTagCompound();
+				tag.setInteger("dim", e.getKey().intValue());
+				tag.setIntArray("leases", packed);
+				list.appendTag(tag);
 			}
-			//StargateNetwork.instance().initializeWormholes();
-			MinecraftForge.EVENT_BUS.unregister(this);
+			nbt.setTag("released", list);
 		}
 	}
 	
+	private ChunkLoader(){}
+	
+	public static void register(){
+		ForgeChunkManager.setForcedChunkLoadingCallback(StargateTech2.instance, instance);
+	}
+	
+	public static void unload(){
+		instance.leases = new HashMap();
+		instance.pools = new HashMap();
+		instance.data = null;
+	}
+	
 	@Override
 	public void ticketsLoaded(List<Ticket> tickets, World world) {
+		TicketPool pool = getPool(world);
 		for(Ticket ticket : tickets){
-			instance.tickets.add(ticket);
-			NBTTagCompound data = ticket.getModData();
-			int chunks = data.getInteger("chunks");
-			for(int c = 0; c < chunks; c++){
-				int x = data.getInteger("cX_" + c);
-				int z = data.getInteger("cZ_" + c);
-				ForgeChunkManager.forceChunk(ticket, new ChunkPos(x, z));
+			pool.restore(ticket);
+		}
+		// Every ticket that could hold these leases was just restored without them.
+		LeaseData data = getData(world);
+		if(data.released.remove(Integer.valueOf(world.provider.getDimension())) != null){
+			data.markDirty();
+		}
+	}
+	
+	private static LeaseData getData(World world){
+		if(instance.data == null){
+			LeaseData data = (LeaseData) world.getMapStorage().loadData(LeaseData.class, LeaseData.KEY);
+			if(data == null){
+				data = new LeaseData(LeaseData.KEY);
+				world.getMapStorage().setData(LeaseData.KEY, data);
 			}
+			instance.data = data;
+		}
+		return instance.data;
+	}
+	
+	private static TicketPool getPool(World world){
+		Integer dim = Integer.valueOf(world.provider.getDimension());
+		TicketPool pool = instance.pools.get(dim);
+		if(pool == null || pool.world != world){
+			pool = new TicketPool(world);
+			instance.pools.put(dim, pool);
 		}
+		return pool;
 	}
 	
 	public static long load9Chunks(World world, int x, int z){
@@ -117,37 +285,60 @@ public final class ChunkLoader implements LoadingCallback{
 		return loadChunks(world, chunks);
 	}
 	
-	public synchronized static long loadChunks(World world, List<ChunkPos> chunks){
-		Ticket ticket = ForgeChunkManager.requestTicket(StargateTech2.instance, world, Type.NORMAL);
-		if(ticket != null){
-			NBTTagCompound data = ticket.getModData();
-			int chunkID = 0;
-			data.setInteger("chunks", chunks.size());
-			for(ChunkPos chunk : chunks){
-				ForgeChunkManager.forceChunk(ticket, chunk);
-				data.setInteger("cX_" + chunkID, chunk.chunkXPos);
-				data.setInteger("cZ_" + chunkID, chunk.chunkZPos);
+	/**
+	 * Keeps a set of chunks loaded until the returned lease is released.
+	 *
+	 * @return The id of the lease, or -1 if Forge would not give us a ticket.
+	 */
+	public static long loadChunks(World world, List<ChunkPos> chunks){
+		TicketPool pool = getPool(world);
+		LeaseData data = getData(world);
+		long id = data.nextID++;
+		data.markDirty();
+		Lease lease = new Lease(world.provider.getDimension());
+		instance.leases.put(Long.valueOf(id), lease);
+		for(ChunkPos chunk : chunks){
+			if(lease.chunks.contains(chunk)) continue;
+			if(!pool.acquire(chunk, id)){
+				release(id);
+				return -1L;
 			}
-			long id = instance.ticketID;
-			data.setLong("ticketID", id);
-			instance.ticketID++;
-			instance.tickets.add(ticket);
-			return id;
+			lease.chunks.add(chunk);
 		}
-		return -1L;
+		return id;
 	}
 	
-	public synchronized static void release(long ticket){
-		if(ticket < 0) return; 
-		Ticket found = null;
-		for(Ticket t : instance.tickets){
-			if(ticket == t.getModData().getLong("ticketID")){
-				found = t;
-				break;
-			}
+	public static void release(long ticket){
+		if(ticket < 0) return;
+		Lease lease = instance.leases.remove(Long.valueOf(ticket));
+		if(lease == null) return;
+		TicketPool pool = instance.pools.get(Integer.valueOf(lease.dimension));
+		if(pool == null) return;
+		for(ChunkPos chunk : lease.chunks){
+			pool.release(chunk, ticket);
+		}
+	}
+	
+	/**
+	 * Releases a lease that may belong to a dimension whose tickets weren't loaded yet,
+	 * in which case it's dropped from them when they are.
+	 */
+	public static void release(long ticket, int dimension){
+		if(ticket < 0) return;
+		Integer dim = Integer.valueOf(dimension);
+		if(instance.leases.containsKey(Long.valueOf(ticket)) || instance.pools.containsKey(dim)){
+			release(ticket);
+			return;
+		}
+		World overworld = DimensionManager.getWorld(0);
+		if(overworld == null) return;
+		LeaseData data = getData(overworld);
+		HashSet<Long> released = data.released.get(dim);
+		if(released == null){
+			released = new HashSet();
+			data.released.put(dim, released);
 		}
-		if(found == null) return;
-		instance.tickets.remove(found);
-		ForgeChunkManager.releaseTicket(found);
+		released.add(Long.valueOf(ticket));
+		data.markDirty();
 	}
-}
\ No newline at end of file
+}
@@ -56,6 +56,9 @@ public class Config {
 		ConfigServer.shieldEmitterRange = cfg.getInt("shieldEmitterRange", ConfigReference.KEY_CFG_SERVER, ConfigServer.shieldEmitterRange, 3, 12, "The maximum gap between Shield Emitter pairs.");
 		int minDistance = cfg.getInt("stargateMinDistance", ConfigReference.KEY_CFG_SERVER, 150, 50, 100000000, "The minimum diagonal distance, in blocks, between two stargates.");
 		ConfigServer.stargateMinDistance = minDistance * minDistance;
+		ConfigServer.wormholeScanInterval = cfg.getInt("wormholeScanInterval", ConfigReference.KEY_CFG_SERVER, ConfigServer.wormholeScanInterval, 1, 20, "How often, in ticks, open wormholes check their event horizon for entities to teleport.");
+		ConfigServer.dialTickBudget = cfg.getInt("dialTickBudget", ConfigReference.KEY_CFG_SERVER, ConfigServer.dialTickBudget, 1, 50, "How many milliseconds per tick, at most, are spent advancing Stargate dialing sequences.");
+		ConfigServer.busPacketsPerTick = cfg.getInt("busPacketsPerTick", ConfigReference.KEY_CFG_SERVER, ConfigServer.busPacketsPerTick, 1, 10000, "How many queued Abstract Bus packets, at most, each bus network delivers per tick.");
 		
 		// WORLDGEN CONFIGS
 		ConfigServer.wgLootPodGap = cfg.getInt("lootPodSpacing", ConfigReference.KEY_CFG_SV_WGEN, ConfigServer.wgLootPodGap, 6, 100, "The minimum distance, in chunks, between two Loot Pods.");
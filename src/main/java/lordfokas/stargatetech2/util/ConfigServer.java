@@ -3,6 +3,9 @@ package lordfokas.stargatetech2.util;
 public class ConfigServer {
 	public static int shieldEmitterRange = 5;
 	public static int stargateMinDistance = 150;
+	public static int wormholeScanInterval = 1;
+	public static int dialTickBudget = 5;
+	public static int busPacketsPerTick = 256;
 	
 	public static int wgLootPodGap = 8;
 	public static int wgLootPodOdd = 6;
@@ -0,0 +1,171 @@
+package lordfokas.stargatetech2.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs save jobs on a dedicated I/O thread so the server tick never waits on the disk.
+ * Callers take an immutable snapshot of their data on the tick thread and submit a job
+ * that only writes it. Jobs run one at a time in submission order, and a job is refused
+ * while another one with the same name is still in flight, so saves never pile up.
+ */
+public final class SaveExecutor {
+	private static final SaveExecutor INSTANCE = new SaveExecutor();
+	
+	private final ExecutorService executor;
+	private final HashMap<String, SaveStats> stats = new HashMap();
+	
+	public interface Job{
+		public void write() throws Exception;
+	}
+	
+	public static final class SaveStats{
+		private int inFlight, saves, skipped, failed;
+		private long lastNanos, maxNanos, totalNanos;
+		
+		public synchronized int getSaveCount(){ return saves; }
+		public synchronized int getSkippedCount(){ return skipped; }
+		public synchronized int getFailedCount(){ return failed; }
+		public synchronized double getLastMillis(){ return lastNanos / 1000000D; }
+		public synchronized double getMaxMillis(){ return maxNanos / 1000000D; }
+		public synchronized double getAverageMillis(){ return saves == 0 ? 0D : totalNanos / 1000000D / saves; }
+		
+		private synchronized void record(long nanos, boolean success){
+			inFlight--;
+			if(!success) failed++;
+			saves++;
+			lastNanos = nanos;
+			totalNanos += nanos;
+			if(nanos > maxNanos) maxNanos = nanos;
+		}
+	}
+	
+	public static SaveExecutor instance(){
+		return INSTANCE;
+	}
+	
+	private SaveExecutor(){
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r){
+				Thread thread = new Thread(r, "StargateTech2 Save Thread");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Queues a save job, unless another job with the same name is still in flight.
+	 * 
+	 * @param name The name under which this job's metrics are kept.
+	 * @param job The job that writes the snapshot to disk.
+	 * @return Whether the job was queued.
+	 */
+	public boolean submit(final String name, final Job job){
+		final SaveStats stat = getStats(name);
+		synchronized(stat){
+			if(stat.inFlight > 0){
+				stat.skipped++;
+				return false;
+			}
+			stat.inFlight++;
+		}
+		executor.execute(new Runnable(){
+			@Override
+			public void run(){
+				long start = System.nanoTime();
+				boolean success = false;
+				try{
+					job.write();
+					success = true;
+				}catch(Exception e){
+					StargateLogger.error("There was an error while saving " + name);
+					e.printStackTrace();
+				}finally{
+					stat.record(System.nanoTime() - start, success);
+				}
+			}
+		});
+		return true;
+	}
+	
+	/**
+	 * @return Whether a job with this name is queued or running.
+	 */
+	public boolean isBusy(String name){
+		SaveStats stat = getStats(name);
+		synchronized(stat){
+			return stat.inFlight > 0;
+		}
+	}
+	
+	public synchronized SaveStats getStats(String name){
+		SaveStats stat = stats.get(name);
+		if(stat == null){
+			stat = new SaveStats();
+			stats.put(name, stat);
+		}
+		return stat;
+	}
+	
+	/**
+	 * Blocks until every job queued so far has been written. Used when the server stops.
+	 */
+	public void awaitIdle(){
+		final Object lock = new Object();
+		final boolean[] done = new boolean[1];
+		executor.execute(new Runnable(){
+			@Override
+			public void run(){
+				synchronized(lock){
+					done[0] = true;
+					lock.notifyAll();
+				}
+			}
+		});
+		synchronized(lock){
+			long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+			while(!done[0]){
+				long wait = deadline - System.currentTimeMillis();
+				if(wait <= 0){
+					StargateLogger.error("Timed out while waiting for StargateTech2 data to be saved!");
+					return;
+				}
+				try{
+					lock.wait(wait);
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Writes data to a temporary file, syncs it to disk and atomically renames it over the target,
+	 * so the target is always either the old or the new version, never a partial one.
+	 */
+	public static void writeAtomically(File file, byte[] data) throws IOException{
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp, false);
+		try{
+			BufferedOutputStream bos = new BufferedOutputStream(fos);
+			bos.write(data);
+			bos.flush();
+			fos.getFD().sync();
+		}finally{
+			fos.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}